@@ -0,0 +1,38 @@
+/*
+ * Copyright 2018-2019 Pany Young.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.pany.walle.common.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Chooses the arguments whose values key the consistent hash load balancing of this method, by index.
+ * Calls with equal values for these arguments go to the same provider while it stays up.
+ * Overrides the {@code hashArguments} of the reference; ignored by the other load balancers.
+ * <p>
+ * An argument is keyed by its {@code toString()}, arrays by their contents. Arguments of a type that does
+ * not override {@code toString()} have no stable key, and the call fails instead of spreading at random.
+ */
+@Documented
+@Target({ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface WalleHashKey {
+
+    int[] value() default {0};
+}
@@ -15,6 +15,7 @@
  */
 package cn.pany.walle.common.annotation;
 
+import cn.pany.walle.common.constants.WalleConstant;
 import org.springframework.stereotype.Service;
 
 import java.lang.annotation.ElementType;
@@ -33,4 +34,8 @@ public @interface WalleRpcService {
     Class<?> value();
     String appName();
     String version() default "1.0.0";
+    // 建议客户端使用的序列化方式名称，为空时用默认的
+    String serializer() default "";
+    // 负载均衡权重，按机器的处理能力配置，0 表示不分流量
+    int weight() default WalleConstant.DEFAULT_WEIGHT;
 }
\ No newline at end of file
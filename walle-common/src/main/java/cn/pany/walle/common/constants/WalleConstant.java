@@ -24,4 +24,16 @@ public final class WalleConstant {
     public static final String INTERFACE_CLASS_KEY ="interfaceClass";
 
     public static final Long DEFAULT_TIMEOUT = 10000L;
+
+    //每个服务端的连接数
+    public static final int DEFAULT_CONNECTIONS = 1;
+
+    //一致性 hash 每个服务端在环上的虚拟节点数
+    public static final int DEFAULT_HASH_NODES = 160;
+
+    //服务端默认权重
+    public static final int DEFAULT_WEIGHT = 100;
+
+    //共享 IO 线程数，随 CPU 核数而不是服务端数量增长
+    public static final int DEFAULT_IO_THREADS = Math.min(Runtime.getRuntime().availableProcessors() + 1, 32);
 }
@@ -9,7 +9,8 @@ public enum RouterType {
     RANDOM_LOADBALANCE(1,"随机"),
     ROUNDROBIN_LOADBALANCE(2,"轮询"),
     LEASTACTIVE_LOADBALANCE(3,"最少调用数"),
-    CONSISTENTHASH_LOADBALANCE(4,"一致性 Hash");
+    CONSISTENTHASH_LOADBALANCE(4,"一致性 Hash"),
+    P2C_LOADBALANCE(5,"随机两个里选响应快的");
 
     private int code;
     private String name;
@@ -39,4 +40,16 @@ public enum RouterType {
         }
         return null;
     }
+
+    /**
+     * Look up by the short name used in configuration: random, roundrobin, leastactive, consistenthash or p2c.
+     */
+    public static RouterType getByKey(String key){
+        for(RouterType routerType:RouterType.values()){
+            if(routerType.name().equalsIgnoreCase(key+"_LOADBALANCE")){
+                return routerType;
+            }
+        }
+        return null;
+    }
 }
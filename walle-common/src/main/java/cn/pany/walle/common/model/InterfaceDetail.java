@@ -10,6 +10,8 @@ public class InterfaceDetail {
     private String className;
     private String version;
     private String interfaceUrl;
+    //负载均衡权重，为空时按 WalleConstant.DEFAULT_WEIGHT，0 表示不分流量
+    private Integer weight;
     public InterfaceDetail(String className,String version){
         this.className = className;
         this.version = version;
@@ -40,6 +42,14 @@ public class InterfaceDetail {
         this.interfaceUrl = interfaceUrl;
     }
 
+    public Integer getWeight() {
+        return weight;
+    }
+
+    public void setWeight(Integer weight) {
+        this.weight = weight;
+    }
+
     @Override
     public boolean equals(Object o) {
         if(o instanceof  InterfaceDetail){
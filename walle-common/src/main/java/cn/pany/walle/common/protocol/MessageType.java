@@ -6,7 +6,11 @@ package cn.pany.walle.common.protocol;
 public enum  MessageType {
     SERVICE_REQ((byte) 0), SERVICE_RESP((byte) 1), ONE_WAY((byte) 2), LOGIN_REQ(
             (byte) 3), LOGIN_RESP((byte) 4), HEARTBEAT_REQ((byte) 5), HEARTBEAT_RESP(
-            (byte) 6), CLIENT_REQ((byte) 7), CLIENT_RESP((byte) 8);
+            (byte) 6), CLIENT_REQ((byte) 7), CLIENT_RESP((byte) 8),
+    //一个帧里带多个请求/响应
+    BATCH_REQ((byte) 9), BATCH_RESP((byte) 10),
+    //流式调用，sessionID 是发起请求的 id
+    STREAM_NEXT((byte) 11), STREAM_END((byte) 12), STREAM_CREDIT((byte) 13), STREAM_CANCEL((byte) 14);
 
     private byte value;
 
@@ -17,12 +21,22 @@ public enum  MessageType {
     public byte value() {
         return this.value;
     }
-    public static MessageType getByValue(byte value){
-        for(MessageType messageType:MessageType.values()){
-            if(messageType.value==value){
-                return messageType;
-            }
+
+    //按 value 下标查，解码时不用每次 values() 复制数组
+    private static final MessageType[] BY_VALUE;
+
+    static {
+        int max = 0;
+        for (MessageType messageType : values()) {
+            max = Math.max(max, messageType.value);
+        }
+        BY_VALUE = new MessageType[max + 1];
+        for (MessageType messageType : values()) {
+            BY_VALUE[messageType.value] = messageType;
         }
-        return null;
+    }
+
+    public static MessageType getByValue(byte value){
+        return value >= 0 && value < BY_VALUE.length ? BY_VALUE[value] : null;
     }
 }
\ No newline at end of file
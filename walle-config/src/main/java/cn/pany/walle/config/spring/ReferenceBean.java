@@ -16,10 +16,12 @@
 package cn.pany.walle.config.spring;
 
 import cn.pany.walle.common.constants.WalleConstant;
+import cn.pany.walle.common.enums.RouterType;
 import cn.pany.walle.common.utils.InvokerUtil;
 import cn.pany.walle.remoting.api.WalleApp;
 import cn.pany.walle.remoting.api.WalleInvoker;
 import cn.pany.walle.remoting.client.WalleClient;
+import cn.pany.walle.remoting.serialize.SerializerFactory;
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,6 +33,7 @@ import org.springframework.context.ApplicationContextAware;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
 
 /**
  * Created by pany on 16/9/6.
@@ -57,6 +60,18 @@ public class ReferenceBean<T> implements FactoryBean, ApplicationContextAware {
 //    protected List<WalleRegistry> registries;
     private WalleApp walleApp;
     private transient volatile WalleInvoker<?> invoker;
+    // 异步调用回调线程池，为空时在 IO 线程回调
+    private Executor callbackExecutor;
+    // 序列化方式名称，为空时用服务端为该服务配置的
+    private String serializer;
+    // 为 true 时所有 void 方法都单向调用，不等响应
+    private boolean oneWay;
+    // 负载均衡方式，random/roundrobin/leastactive/consistenthash/p2c，为空时随机
+    private String loadbalance;
+    // 一致性 hash 取哪几个参数作为 key，逗号分隔的下标，为空时取第一个
+    private String hashArguments;
+    // 一致性 hash 每个服务端的虚拟节点数
+    private Integer hashNodes;
 
 
     public Class<?> getInterfaceClass() {
@@ -110,6 +125,34 @@ public class ReferenceBean<T> implements FactoryBean, ApplicationContextAware {
             }
         }
 
+        if (callbackExecutor != null) {
+            invoker.setCallbackExecutor(callbackExecutor);
+        }
+        if (StringUtils.isNotBlank(serializer)) {
+            invoker.setSerializer(SerializerFactory.idOf(serializer));
+        }
+        if (oneWay) {
+            invoker.setOneWay(true);
+        }
+        if (StringUtils.isNotBlank(loadbalance)) {
+            RouterType routerType = RouterType.getByKey(loadbalance.trim());
+            if (routerType == null) {
+                throw new IllegalStateException("<walle:reference loadbalance=\"" + loadbalance + "\" /> unknown loadbalance!");
+            }
+            invoker.setRouterType(routerType);
+        }
+        if (StringUtils.isNotBlank(hashArguments)) {
+            String[] indexes = hashArguments.split(",");
+            int[] arguments = new int[indexes.length];
+            for (int i = 0; i < indexes.length; i++) {
+                arguments[i] = Integer.parseInt(indexes[i].trim());
+            }
+            invoker.setHashArguments(arguments);
+        }
+        if (hashNodes != null && hashNodes > 0) {
+            invoker.setHashNodes(hashNodes);
+        }
+
         map.put(WalleConstant.INTERFACE_CLASS_KEY, interfaceName);
 
         if (ref == null) {
@@ -206,6 +249,54 @@ public class ReferenceBean<T> implements FactoryBean, ApplicationContextAware {
         this.walleApp = walleApp;
     }
 
+    public Executor getCallbackExecutor() {
+        return callbackExecutor;
+    }
+
+    public void setCallbackExecutor(Executor callbackExecutor) {
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    public String getSerializer() {
+        return serializer;
+    }
+
+    public void setSerializer(String serializer) {
+        this.serializer = serializer;
+    }
+
+    public boolean isOneWay() {
+        return oneWay;
+    }
+
+    public void setOneWay(boolean oneWay) {
+        this.oneWay = oneWay;
+    }
+
+    public String getLoadbalance() {
+        return loadbalance;
+    }
+
+    public void setLoadbalance(String loadbalance) {
+        this.loadbalance = loadbalance;
+    }
+
+    public String getHashArguments() {
+        return hashArguments;
+    }
+
+    public void setHashArguments(String hashArguments) {
+        this.hashArguments = hashArguments;
+    }
+
+    public Integer getHashNodes() {
+        return hashNodes;
+    }
+
+    public void setHashNodes(Integer hashNodes) {
+        this.hashNodes = hashNodes;
+    }
+
     public WalleInvoker<?> getInvoker() {
         return invoker;
     }
@@ -25,6 +25,8 @@ import cn.pany.walle.remoting.api.WalleApp;
 import cn.pany.walle.remoting.api.WalleInvoker;
 import cn.pany.walle.remoting.client.WalleClient;
 import cn.pany.walle.remoting.registry.WalleRegistry;
+import cn.pany.walle.remoting.transport.TransportConfig;
+import cn.pany.walle.remoting.transport.TransportType;
 import com.alibaba.fastjson.JSON;
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.framework.recipes.cache.ChildData;
@@ -37,6 +39,7 @@ import org.apache.curator.framework.recipes.cache.TreeCacheListener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.FactoryBean;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
@@ -44,13 +47,26 @@ import org.springframework.context.ApplicationContextAware;
 /**
  * Created by pany on 18/9/21.
  */
-public class WalleAppBean implements FactoryBean<WalleApp>, ApplicationContextAware {
+public class WalleAppBean implements FactoryBean<WalleApp>, ApplicationContextAware, DisposableBean {
     private static final Logger log = LoggerFactory.getLogger(WalleAppBean.class);
 
     private String id;
     // 接口类型
     private String appName;
     private String version;
+    // 每个服务端的连接数
+    private Integer connections;
+    // nio/epoll/auto
+    private String transport;
+    private Boolean edgeTriggered;
+    private Integer tcpFastOpen;
+    private Boolean busyPoll;
+    private Boolean flushConsolidation;
+    private Integer flushMaxMessages;
+    private Long flushMaxBytes;
+    private Boolean batch;
+    private Integer compressThreshold;
+    private Boolean lazyDecode;
 
     private transient ApplicationContext applicationContext;
     // 注册中心
@@ -75,6 +91,10 @@ public class WalleAppBean implements FactoryBean<WalleApp>, ApplicationContextAw
     public WalleApp getObject() throws Exception {
         if (walleApp == null) {
             walleApp = new WalleApp(appName, loadRegistries());
+            if (connections != null) {
+                walleApp.setConnections(connections);
+            }
+            walleApp.setTransportConfig(loadTransportConfig());
             walleApp.init();
         }
 
@@ -86,6 +106,13 @@ public class WalleAppBean implements FactoryBean<WalleApp>, ApplicationContextAw
         return WalleApp.class;
     }
 
+    @Override
+    public void destroy() throws Exception {
+        if (walleApp != null) {
+            walleApp.close();
+        }
+    }
+
     @Override
     public boolean isSingleton() {
         return true;
@@ -99,6 +126,41 @@ public class WalleAppBean implements FactoryBean<WalleApp>, ApplicationContextAw
 
     }
 
+    protected TransportConfig loadTransportConfig() {
+        TransportConfig transportConfig = new TransportConfig();
+        if (StringUtils.isNotEmpty(transport)) {
+            transportConfig.setType(TransportType.of(transport));
+        }
+        if (edgeTriggered != null) {
+            transportConfig.setEdgeTriggered(edgeTriggered);
+        }
+        if (tcpFastOpen != null) {
+            transportConfig.setTcpFastOpen(tcpFastOpen);
+        }
+        if (busyPoll != null) {
+            transportConfig.setBusyPoll(busyPoll);
+        }
+        if (flushConsolidation != null) {
+            transportConfig.setFlushConsolidation(flushConsolidation);
+        }
+        if (flushMaxMessages != null) {
+            transportConfig.setFlushMaxMessages(flushMaxMessages);
+        }
+        if (flushMaxBytes != null) {
+            transportConfig.setFlushMaxBytes(flushMaxBytes);
+        }
+        if (batch != null) {
+            transportConfig.setBatch(batch);
+        }
+        if (compressThreshold != null) {
+            transportConfig.setCompressThreshold(compressThreshold);
+        }
+        if (lazyDecode != null) {
+            transportConfig.setLazyDecode(lazyDecode);
+        }
+        return transportConfig;
+    }
+
     protected WalleRegistry loadRegistries() throws Exception {
         //检测注册
         return registry;
@@ -121,6 +183,94 @@ public class WalleAppBean implements FactoryBean<WalleApp>, ApplicationContextAw
         this.version = version;
     }
 
+    public Integer getConnections() {
+        return connections;
+    }
+
+    public void setConnections(Integer connections) {
+        this.connections = connections;
+    }
+
+    public String getTransport() {
+        return transport;
+    }
+
+    public void setTransport(String transport) {
+        this.transport = transport;
+    }
+
+    public Boolean getEdgeTriggered() {
+        return edgeTriggered;
+    }
+
+    public void setEdgeTriggered(Boolean edgeTriggered) {
+        this.edgeTriggered = edgeTriggered;
+    }
+
+    public Integer getTcpFastOpen() {
+        return tcpFastOpen;
+    }
+
+    public void setTcpFastOpen(Integer tcpFastOpen) {
+        this.tcpFastOpen = tcpFastOpen;
+    }
+
+    public Boolean getBusyPoll() {
+        return busyPoll;
+    }
+
+    public void setBusyPoll(Boolean busyPoll) {
+        this.busyPoll = busyPoll;
+    }
+
+    public Boolean getFlushConsolidation() {
+        return flushConsolidation;
+    }
+
+    public void setFlushConsolidation(Boolean flushConsolidation) {
+        this.flushConsolidation = flushConsolidation;
+    }
+
+    public Integer getFlushMaxMessages() {
+        return flushMaxMessages;
+    }
+
+    public void setFlushMaxMessages(Integer flushMaxMessages) {
+        this.flushMaxMessages = flushMaxMessages;
+    }
+
+    public Long getFlushMaxBytes() {
+        return flushMaxBytes;
+    }
+
+    public void setFlushMaxBytes(Long flushMaxBytes) {
+        this.flushMaxBytes = flushMaxBytes;
+    }
+
+    public Boolean getBatch() {
+        return batch;
+    }
+
+    public void setBatch(Boolean batch) {
+        this.batch = batch;
+    }
+
+    public Integer getCompressThreshold() {
+        return compressThreshold;
+    }
+
+    public void setCompressThreshold(Integer compressThreshold) {
+        this.compressThreshold = compressThreshold;
+    }
+
+    public Boolean getLazyDecode() {
+        return lazyDecode;
+    }
+
+    public void setLazyDecode(Boolean lazyDecode) {
+        this.lazyDecode = lazyDecode;
+    }
+
     public WalleRegistry getRegistry() {
         return registry;
     }
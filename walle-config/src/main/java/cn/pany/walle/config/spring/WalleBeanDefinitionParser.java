@@ -15,6 +15,10 @@
  */
 package cn.pany.walle.config.spring;
 
+import cn.pany.walle.remoting.server.DispatchMode;
+import cn.pany.walle.remoting.server.RejectPolicy;
+import cn.pany.walle.remoting.server.WalleSmartServer;
+import cn.pany.walle.remoting.transport.TransportType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.config.BeanDefinition;
@@ -22,6 +26,7 @@ import org.springframework.beans.factory.config.RuntimeBeanReference;
 import org.springframework.beans.factory.support.RootBeanDefinition;
 import org.springframework.beans.factory.xml.BeanDefinitionParser;
 import org.springframework.beans.factory.xml.ParserContext;
+import org.springframework.util.StringUtils;
 import org.w3c.dom.Element;
 
 /**
@@ -30,6 +35,9 @@ import org.w3c.dom.Element;
 public class WalleBeanDefinitionParser implements BeanDefinitionParser {
     private static final Logger logger = LoggerFactory.getLogger(WalleBeanDefinitionParser.class);
 
+    private static final String[] TRANSPORT_ATTRIBUTES = {"transport", "edgeTriggered", "tcpFastOpen", "busyPoll",
+            "flushConsolidation", "flushMaxMessages", "flushMaxBytes", "batch", "compressThreshold", "lazyDecode"};
+
     private final Class<?> beanClass;
 
     public WalleBeanDefinitionParser(Class<?> beanClass) {
@@ -66,6 +74,31 @@ public class WalleBeanDefinitionParser implements BeanDefinitionParser {
                     "version", version);
             beanDefinition.getPropertyValues().addPropertyValue(
                     "walleApp", appBean);
+            String callbackExecutor = element.getAttribute("callbackExecutor");
+            if (StringUtils.hasText(callbackExecutor)) {
+                beanDefinition.getPropertyValues().addPropertyValue(
+                        "callbackExecutor", new RuntimeBeanReference(callbackExecutor));
+            }
+            String serializer = element.getAttribute("serializer");
+            if (StringUtils.hasText(serializer)) {
+                beanDefinition.getPropertyValues().addPropertyValue("serializer", serializer);
+            }
+            String oneWay = element.getAttribute("oneWay");
+            if (StringUtils.hasText(oneWay)) {
+                beanDefinition.getPropertyValues().addPropertyValue("oneWay", Boolean.valueOf(oneWay));
+            }
+            String loadbalance = element.getAttribute("loadbalance");
+            if (StringUtils.hasText(loadbalance)) {
+                beanDefinition.getPropertyValues().addPropertyValue("loadbalance", loadbalance);
+            }
+            String hashArguments = element.getAttribute("hashArguments");
+            if (StringUtils.hasText(hashArguments)) {
+                beanDefinition.getPropertyValues().addPropertyValue("hashArguments", hashArguments);
+            }
+            String hashNodes = element.getAttribute("hashNodes");
+            if (StringUtils.hasText(hashNodes)) {
+                beanDefinition.getPropertyValues().addPropertyValue("hashNodes", Integer.valueOf(hashNodes));
+            }
             try {
                 beanDefinition.getPropertyValues().addPropertyValue(
                         "interfaceClass", Class.forName(interfaceName));
@@ -81,6 +114,58 @@ public class WalleBeanDefinitionParser implements BeanDefinitionParser {
             beanDefinition.getPropertyValues().addPropertyValue("id", id);
             beanDefinition.getPropertyValues().addPropertyValue("appName", appName);
             beanDefinition.getPropertyValues().addPropertyValue("registry", registryBean);
+            String connections = element.getAttribute("connections");
+            if (StringUtils.hasText(connections)) {
+                beanDefinition.getPropertyValues().addPropertyValue("connections", Integer.valueOf(connections));
+            }
+            for (String attribute : TRANSPORT_ATTRIBUTES) {
+                String value = element.getAttribute(attribute);
+                if (StringUtils.hasText(value)) {
+                    beanDefinition.getPropertyValues().addPropertyValue(attribute, value);
+                }
+            }
+
+        } else if (WalleSmartServer.class.equals(beanClass)) {
+            if (!StringUtils.hasText(id)) {
+                id = "walleServer";
+            }
+            String port = element.getAttribute("port");
+            String registryName = element.getAttribute("registry");
+            beanDefinition.getConstructorArgumentValues().addIndexedArgumentValue(0, Integer.valueOf(port));
+            beanDefinition.getConstructorArgumentValues().addIndexedArgumentValue(1, new RuntimeBeanReference(registryName));
+
+            for (String attribute : TRANSPORT_ATTRIBUTES) {
+                String value = element.getAttribute(attribute);
+                if (!StringUtils.hasText(value)) {
+                    continue;
+                }
+                if ("transport".equals(attribute)) {
+                    beanDefinition.getPropertyValues().addPropertyValue("transportConfig.type", TransportType.of(value));
+                } else {
+                    beanDefinition.getPropertyValues().addPropertyValue("transportConfig." + attribute, value);
+                }
+            }
+            String reusePort = element.getAttribute("reusePort");
+            if (StringUtils.hasText(reusePort)) {
+                beanDefinition.getPropertyValues().addPropertyValue("transportConfig.reusePort", reusePort);
+            }
+
+            String dispatcher = element.getAttribute("dispatcher");
+            if (StringUtils.hasText(dispatcher)) {
+                beanDefinition.getPropertyValues().addPropertyValue("dispatcherConfig.mode", DispatchMode.of(dispatcher));
+            }
+            String threads = element.getAttribute("threads");
+            if (StringUtils.hasText(threads)) {
+                beanDefinition.getPropertyValues().addPropertyValue("dispatcherConfig.threads", threads);
+            }
+            String queueSize = element.getAttribute("queueSize");
+            if (StringUtils.hasText(queueSize)) {
+                beanDefinition.getPropertyValues().addPropertyValue("dispatcherConfig.queueSize", queueSize);
+            }
+            String rejectPolicy = element.getAttribute("rejectPolicy");
+            if (StringUtils.hasText(rejectPolicy)) {
+                beanDefinition.getPropertyValues().addPropertyValue("dispatcherConfig.rejectPolicy", RejectPolicy.of(rejectPolicy));
+            }
 
         } else if (WalleServiceBean.class.equals(beanClass)) {
             String interfaceName = element.getAttribute("interface");
@@ -101,6 +186,14 @@ public class WalleBeanDefinitionParser implements BeanDefinitionParser {
                     "version", version);
             beanDefinition.getPropertyValues().addPropertyValue(
                     "walleApp", appBean);
+            String serializer = element.getAttribute("serializer");
+            if (StringUtils.hasText(serializer)) {
+                beanDefinition.getPropertyValues().addPropertyValue("serializer", serializer);
+            }
+            String weight = element.getAttribute("weight");
+            if (StringUtils.hasText(weight)) {
+                beanDefinition.getPropertyValues().addPropertyValue("weight", Integer.valueOf(weight));
+            }
             try {
                 beanDefinition.getPropertyValues().addPropertyValue(
                         "implClass", Class.forName(implName));
@@ -15,7 +15,11 @@
  */
 package cn.pany.walle.config.spring;
 
+import cn.pany.walle.common.annotation.WalleHashKey;
+import cn.pany.walle.common.annotation.WalleOneWay;
+import cn.pany.walle.common.annotation.WalleStream;
 import cn.pany.walle.common.constants.WalleConstant;
+import cn.pany.walle.common.enums.RouterType;
 import cn.pany.walle.common.protocol.MessageType;
 import cn.pany.walle.remoting.api.WalleInvoker;
 import cn.pany.walle.remoting.protocol.Header;
@@ -26,8 +30,13 @@ import cn.pany.walle.remoting.protocol.WalleMessage;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.Map;
-import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Future;
 
 /**
  * Created by pany on 16/9/8.
@@ -35,7 +44,7 @@ import java.util.UUID;
 
 public class WalleProxy {
 
-    public static  <T> T create(Map<String, String> map,WalleInvoker walleInvoker) {
+    public static  <T> T create(Map<String, String> map,WalleInvoker<?> walleInvoker) {
         Class<?> interfaceClass;
         ClassLoader clazzLoader = Thread.currentThread()
                 .getContextClassLoader();
@@ -59,32 +68,123 @@ public class WalleProxy {
 
                         Header header = new Header();
                         header.setType(MessageType.SERVICE_REQ);
+                        header.setSerializer(walleInvoker.getSerializer());
                         walleMessage.setHeader(header);
                         WalleBizRequest walleBizRequest = new WalleBizRequest();
-                        walleBizRequest.setRequestId(UUID.randomUUID().toString());
                         walleBizRequest.setClassName(method.getDeclaringClass().getName());
                         walleBizRequest.setMethodName(method.getName());
                         walleBizRequest.setVersion(walleInvoker.getVersion());
                         walleBizRequest.setParameterTypes(method.getParameterTypes());
                         walleBizRequest.setParameters(args);
                         walleMessage.setBody(walleBizRequest);
+                        if (walleInvoker.getRouterType() == RouterType.CONSISTENTHASH_LOADBALANCE) {
+                            walleMessage.setHashKey(hashKey(method, args, walleInvoker));
+                        }
 
-                        WalleBizResponse response =  walleInvoker.send(walleMessage); // 通过 RPC 客户端发送 RPC 请求并获取 RPC 响应
-//                        WalleBizResponse response = walleClient.send(nettyMessage); // 通过 RPC 客户端发送 RPC 请求并获取 RPC 响应
-                        if(response == null){
+                        if (isOneWay(method, walleInvoker)) {
+                            walleInvoker.sendOneWay(walleMessage);
                             return null;
                         }
-                        if (response.getSuccess()==null&&response.getError()!=null) {
-                            throw response.getError();
-                        }else if(!response.getSuccess()&&response.getError()!=null){
-                            throw response.getError();
-                        } else {
-                            return response.getResult();
+
+                        if (isStream(method)) {
+                            return walleInvoker.openStream(walleMessage);
+                        }
+
+                        if (isAsync(method)) {
+                            CompletableFuture<WalleBizResponse> future = walleInvoker.sendAsync(walleMessage);
+                            return future.thenApply(response -> {
+                                try {
+                                    return getResult(response);
+                                } catch (Throwable t) {
+                                    throw t instanceof CompletionException ? (CompletionException) t : new CompletionException(t);
+                                }
+                            });
                         }
+
+                        WalleBizResponse response =  walleInvoker.send(walleMessage); // 通过 RPC 客户端发送 RPC 请求并获取 RPC 响应
+//                        WalleBizResponse response = walleClient.send(nettyMessage); // 通过 RPC 客户端发送 RPC 请求并获取 RPC 响应
+                        return getResult(response);
                     }
 
                 }
         );
         return t;
     }
+
+    //返回 CompletableFuture/Future 的接口方法走异步调用
+    private static boolean isAsync(Method method) {
+        Class<?> returnType = method.getReturnType();
+        return returnType == CompletableFuture.class || returnType == Future.class || returnType == CompletionStage.class;
+    }
+
+    //没有返回值的方法才能单向调用：标了 @WalleOneWay，或者整个引用配置了 oneWay
+    private static boolean isOneWay(Method method, WalleInvoker<?> walleInvoker) {
+        return method.getReturnType() == void.class
+                && (walleInvoker.isOneWay() || method.isAnnotationPresent(WalleOneWay.class));
+    }
+
+    //标了 @WalleStream 且返回 Iterator 的接口方法是服务端流式调用，结果边收边读；Iterator 类型的参数由 WalleClient 边读边上传
+    private static boolean isStream(Method method) {
+        return method.getReturnType() == Iterator.class && method.isAnnotationPresent(WalleStream.class);
+    }
+
+    //参数类型有没有自己的 toString，没有的话同一个值每次的 key 都不同
+    private static final ClassValue<Boolean> HAS_TO_STRING = new ClassValue<Boolean>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            try {
+                return type.getMethod("toString").getDeclaringClass() != Object.class;
+            } catch (NoSuchMethodException e) {
+                return false;
+            }
+        }
+    };
+
+    //一致性 hash 的 key：选中参数的值用逗号连起来，没有参数时为空，随机选服务端
+    private static String hashKey(Method method, Object[] args, WalleInvoker<?> walleInvoker) {
+        if (args == null || args.length == 0) {
+            return null;
+        }
+        WalleHashKey annotation = method.getAnnotation(WalleHashKey.class);
+        int[] indexes = annotation != null ? annotation.value() : walleInvoker.getHashArguments();
+        StringBuilder key = new StringBuilder();
+        for (int index : indexes) {
+            if (index >= 0 && index < args.length) {
+                if (key.length() > 0) {
+                    key.append(',');
+                }
+                key.append(keyOf(args[index], index, method));
+            }
+        }
+        return key.toString();
+    }
+
+    //数组按内容；其余对象用 toString，没有重写 toString 的类型拿不到稳定的 key，直接报错
+    private static String keyOf(Object arg, int index, Method method) {
+        if (arg == null) {
+            return "null";
+        }
+        if (arg.getClass().isArray()) {
+            String key = Arrays.deepToString(new Object[]{arg});
+            return key.substring(1, key.length() - 1);
+        }
+        if (!HAS_TO_STRING.get(arg.getClass())) {
+            throw new IllegalArgumentException("hash key argument " + index + " of " + method + " is a "
+                    + arg.getClass().getName() + " without its own toString(), pick other arguments with @WalleHashKey");
+        }
+        return arg.toString();
+    }
+
+    private static Object getResult(WalleBizResponse response) throws Throwable {
+        if(response == null){
+            return null;
+        }
+        if (response.getSuccess()==null&&response.getError()!=null) {
+            throw response.getError();
+        }else if(!response.getSuccess()&&response.getError()!=null){
+            throw response.getError();
+        } else {
+            return response.getResult();
+        }
+    }
 }
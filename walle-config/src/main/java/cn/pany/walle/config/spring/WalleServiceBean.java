@@ -7,7 +7,8 @@ import cn.pany.walle.common.utils.StringUtils;
 import cn.pany.walle.remoting.api.WalleApp;
 import cn.pany.walle.remoting.api.WalleInvoker;
 import cn.pany.walle.remoting.client.WalleClient;
-import cn.pany.walle.remoting.server.WalleServerHandler;
+import cn.pany.walle.remoting.serialize.SerializerFactory;
+import cn.pany.walle.remoting.server.ServiceInvokerTable;
 import cn.pany.walle.remoting.server.WalleSmartServer;
 import org.springframework.beans.BeansException;
 import org.springframework.beans.factory.FactoryBean;
@@ -38,6 +39,10 @@ public class WalleServiceBean<T> implements FactoryBean, InitializingBean, Appli
     //class:version
     private String version;
     private String protocol;
+    // 建议客户端使用的序列化方式名称，为空时用默认的
+    private String serializer;
+    // 负载均衡权重，为空时用默认值
+    private Integer weight;
     private String invokerUrl;
     // 具体实现类引用
     private transient volatile Object ref;
@@ -110,7 +115,8 @@ public class WalleServiceBean<T> implements FactoryBean, InitializingBean, Appli
         if(ref ==null){
             ref = implClass.newInstance();
             InterfaceDetail interfaceDetail = new InterfaceDetail(interfaceName, version);
-            WalleServerHandler.handlerMap.put(invokerUrl, ref);
+            interfaceDetail.setWeight(weight);
+            ServiceInvokerTable.register(interfaceName, version, ref, SerializerFactory.idOf(serializer));
 
             WalleSmartServer.addInterfaceDetail(walleApp.getAppName(),interfaceDetail);
         }
@@ -150,6 +156,22 @@ public class WalleServiceBean<T> implements FactoryBean, InitializingBean, Appli
         this.protocol = protocol;
     }
 
+    public String getSerializer() {
+        return serializer;
+    }
+
+    public void setSerializer(String serializer) {
+        this.serializer = serializer;
+    }
+
+    public Integer getWeight() {
+        return weight;
+    }
+
+    public void setWeight(Integer weight) {
+        this.weight = weight;
+    }
+
     public String getInvokerUrl() {
         return invokerUrl;
     }
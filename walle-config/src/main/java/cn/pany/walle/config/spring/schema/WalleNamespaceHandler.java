@@ -20,6 +20,7 @@ import cn.pany.walle.config.spring.RegistryBean;
 import cn.pany.walle.config.spring.WalleAppBean;
 import cn.pany.walle.config.spring.WalleBeanDefinitionParser;
 import cn.pany.walle.config.spring.WalleServiceBean;
+import cn.pany.walle.remoting.server.WalleSmartServer;
 import org.springframework.beans.factory.xml.NamespaceHandlerSupport;
 
 /**
@@ -32,5 +33,6 @@ public class WalleNamespaceHandler extends NamespaceHandlerSupport {
         registerBeanDefinitionParser("app", new WalleBeanDefinitionParser(WalleAppBean.class));
         registerBeanDefinitionParser("reference", new WalleBeanDefinitionParser(ReferenceBean.class));
         registerBeanDefinitionParser("service", new WalleBeanDefinitionParser(WalleServiceBean.class));
+        registerBeanDefinitionParser("server", new WalleBeanDefinitionParser(WalleSmartServer.class));
     }
 }
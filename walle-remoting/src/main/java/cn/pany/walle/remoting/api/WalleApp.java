@@ -22,6 +22,7 @@ import cn.pany.walle.common.model.ServerInfo;
 import cn.pany.walle.common.utils.UrlUtils;
 import cn.pany.walle.remoting.client.WalleClient;
 import cn.pany.walle.remoting.registry.WalleRegistry;
+import cn.pany.walle.remoting.transport.TransportConfig;
 import com.alibaba.fastjson.JSON;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.curator.framework.CuratorFramework;
@@ -52,6 +53,8 @@ public class WalleApp {
     private AppState appState = AppState.INIT;
     private String version;
     private String appPath;
+    private int connections = WalleConstant.DEFAULT_CONNECTIONS;
+    private TransportConfig transportConfig = new TransportConfig();
 
     enum AppState {
         INIT(1), INITED(2), CLOSE(9);
@@ -158,22 +161,25 @@ public class WalleApp {
 
                                     break;
                                 case CHILD_REMOVED:
-//                            serverInfo=JSON.parseObject(new String(data.getData()), ServerInfo.class);
-//                                    lastPath=data.getPath().substring(data.getPath().lastIndexOf(WalleRegistry.ZK_SPLIT)+1);
-//
-//                                    log.info("CHILD_REMOVED : " + data.getPath() + "  数据:" + new String(data.getData()));
-//
-//                                    for(WalleClient walleClientTemp :WalleApp.this.getWalleClientSet()){
-//                                        if( walleClientTemp.getUrl().getAddress().equals(lastPath)){
-//                                            log.info("client REMOVED : " + walleClientTemp.getUrl().getAddress());
-//                                            walleClientTemp.close();
-//                                            getWalleClientSet().remove(walleClientTemp);
-//                                        }
-//                                    }
+                                    lastPath = UrlUtils.parseURL(data.getPath().substring(data.getPath().lastIndexOf(WalleRegistry.ZK_SPLIT) + 1), null).getAddress();
+                                    log.info("CHILD_REMOVED : " + data.getPath());
+                                    //连接还在的可能只是服务端和注册中心的会话断了，等连接断开重连时再确认
+                                    for (WalleClient tmpCLient : new ArrayList<>(getWalleClientSet())) {
+                                        if (tmpCLient.getUrl().getAddress().equals(lastPath) && !tmpCLient.isConnected()) {
+                                            removeClient(tmpCLient);
+                                        }
+                                    }
                                     break;
                                 case CHILD_UPDATED:
-//                            serverInfo=JSON.parseObject(new String(data.getData()), ServerInfo.class);
+                                    serverInfo = JSON.parseObject(new String(data.getData()), ServerInfo.class);
+                                    lastPath = UrlUtils.parseURL(data.getPath().substring(data.getPath().lastIndexOf(WalleRegistry.ZK_SPLIT) + 1), null).getAddress();
                                     log.info("CHILD_UPDATED : " + data.getPath() + "  数据:" + new String(data.getData()));
+                                    //只更新权重，连接不动
+                                    for (WalleClient tmpCLient : getWalleClientSet()) {
+                                        if (tmpCLient.getUrl().getAddress().equals(lastPath)) {
+                                            tmpCLient.updateWeights(serverInfo.getInterfaceDetailSet());
+                                        }
+                                    }
                                     break;
                                 default:
                                     break;
@@ -197,6 +203,42 @@ public class WalleApp {
         return true;
     }
 
+    /**
+     * Forget a provider that left the registry and release its connections and shared IO threads.
+     */
+    public void removeClient(WalleClient walleClient) {
+        synchronized (walleClientSet) {
+            walleClientSet.remove(walleClient);
+        }
+        walleClient.shutdown();
+        log.info("client [{}] removed", walleClient.getUrl().getAddress());
+    }
+
+    /**
+     * Stop watching the registry and shut down every client of the app.
+     */
+    public synchronized void close() {
+        if (appState == AppState.CLOSE) {
+            return;
+        }
+        appState = AppState.CLOSE;
+        if (childrenCache != null) {
+            try {
+                childrenCache.close();
+            } catch (Exception e) {
+                log.warn("close registry watcher of app [{}] error", appName, e);
+            }
+        }
+        List<WalleClient> clients;
+        synchronized (walleClientSet) {
+            clients = new ArrayList<>(walleClientSet);
+            walleClientSet.clear();
+        }
+        for (WalleClient walleClient : clients) {
+            walleClient.shutdown();
+        }
+    }
+
     public List<URL> getServerList() throws Exception {
         List<String> serverList = walleRegistry.getChildrenList(appPath);
         List<URL> urlList = new ArrayList<>();
@@ -233,6 +275,22 @@ public class WalleApp {
         this.appName = appName;
     }
 
+    public int getConnections() {
+        return connections;
+    }
+
+    public void setConnections(int connections) {
+        this.connections = connections;
+    }
+
+    public TransportConfig getTransportConfig() {
+        return transportConfig;
+    }
+
+    public void setTransportConfig(TransportConfig transportConfig) {
+        this.transportConfig = transportConfig;
+    }
+
     public WalleRegistry getWalleRegistry() {
         return walleRegistry;
     }
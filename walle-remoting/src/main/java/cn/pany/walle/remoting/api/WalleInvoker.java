@@ -15,22 +15,31 @@
  */
 package cn.pany.walle.remoting.api;
 
+import cn.pany.walle.common.constants.WalleConstant;
 import cn.pany.walle.common.enums.RouterType;
 import cn.pany.walle.common.model.InvokerUrl;
+import cn.pany.walle.remoting.client.ClientStream;
 import cn.pany.walle.remoting.client.WalleClient;
 import cn.pany.walle.remoting.exception.RemotingException;
 import cn.pany.walle.remoting.exception.WalleRpcException;
 import cn.pany.walle.remoting.loadbalance.AbstractLoadBalance;
+import cn.pany.walle.remoting.loadbalance.ConsistenthashLoadbalance;
+import cn.pany.walle.remoting.loadbalance.LoadBalance;
 import cn.pany.walle.remoting.protocol.WalleBizRequest;
 import cn.pany.walle.remoting.protocol.WalleBizResponse;
 import cn.pany.walle.remoting.protocol.WalleMessage;
+import cn.pany.walle.remoting.serialize.SerializerFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 
 /**
  * Created by pany on 17/12/11.
@@ -39,18 +48,30 @@ public class WalleInvoker<T> {
     private static final Logger log = LoggerFactory.getLogger(WalleInvoker.class);
 
 
-    private List<WalleClient> clients = new ArrayList<>();
+    //每次调用都要读，增删时整体替换，读的时候不加锁
+    private volatile List<WalleClient> clients = Collections.emptyList();
     private final InvokerUrl invokerUrl;
     private final Class<T> type;
-    private RouterType routerType = RouterType.RANDOM_LOADBALANCE;
+    private volatile RouterType routerType = RouterType.RANDOM_LOADBALANCE;
+    private volatile Executor callbackExecutor;
+    //请求的序列化方式，0 时用服务端为该服务配置的，都没有就是 protostuff
+    private volatile byte serializer;
+    //为 true 时接口里的 void 方法都单向调用
+    private volatile boolean oneWay;
+    //一致性 hash 取哪几个参数作为 key，方法上的 @WalleHashKey 优先
+    private volatile int[] hashArguments = {0};
+    private volatile int hashNodes = WalleConstant.DEFAULT_HASH_NODES;
     //class#method:version
     private final String invokerUrlStr;
+    //只需要服务名的负载均衡共用这一个
+    private final Map<String, Object> serviceMap;
     public static Map<String, WalleInvoker> walleInvokerMap = new ConcurrentHashMap<>();
 
     private final String version;
     public WalleInvoker(Class<T> serviceType, String invokerUrlStr ) {
         this.type = serviceType;
         this.invokerUrlStr = invokerUrlStr;
+        this.serviceMap = Collections.singletonMap(AbstractLoadBalance.SERVICE_KEY, invokerUrlStr);
         this.invokerUrl = InvokerUrl.valueOf(invokerUrlStr);
         this.version =invokerUrl.getVersion();
     }
@@ -58,6 +79,7 @@ public class WalleInvoker<T> {
     public WalleInvoker(Class<T> serviceType, String invokerUrlStr,RouterType routerType ) {
         this.type = serviceType;
         this.invokerUrlStr = invokerUrlStr;
+        this.serviceMap = Collections.singletonMap(AbstractLoadBalance.SERVICE_KEY, invokerUrlStr);
         this.invokerUrl = InvokerUrl.valueOf(invokerUrlStr);
         this.routerType =routerType;
         this.version=invokerUrl.getVersion();
@@ -69,7 +91,7 @@ public class WalleInvoker<T> {
 //            WalleBizRequest walleBizRequest = (WalleBizRequest) walleMessage.getBody();
 //            final String methodName = walleBizRequest.getMethodName();
 
-            WalleClient currentClient = selectorClient(null);
+            WalleClient currentClient = selectorClient(walleMessage);
 
             try {
                 if(currentClient ==null){
@@ -85,32 +107,126 @@ public class WalleInvoker<T> {
         }
     }
 
-    private WalleClient selectorClient(Map map) {
-        if (clients.isEmpty()) {
-            return null;
+    /**
+     * Non-blocking variant of {@link #send(WalleMessage)}. When a callback executor is configured
+     * the returned future is completed on it instead of on the netty IO thread.
+     */
+    public CompletableFuture<WalleBizResponse> sendAsync(WalleMessage walleMessage) {
+        CompletableFuture<WalleBizResponse> future;
+        try {
+            if (!(walleMessage.getBody() instanceof WalleBizRequest)) {
+                throw new WalleRpcException(WalleRpcException.UNKNOWN_EXCEPTION, "Failed to invoke remote method: " + invokerUrlStr + ", cause: walleMessage.getBody() is not WalleBizRequest");
+            }
+            WalleClient currentClient = selectorClient(walleMessage);
+            if (currentClient == null) {
+                throw new WalleRpcException(WalleRpcException.NO_CLIENT_EXCEPTION, "Failed to invoke remote method: " + invokerUrlStr + ", cause:selectorClient is null! ");
+            }
+            future = currentClient.sendAsync(walleMessage);
+        } catch (RemotingException e) {
+            future = new CompletableFuture<>();
+            future.completeExceptionally(new WalleRpcException(WalleRpcException.NETWORK_EXCEPTION, "Failed to invoke remote method: " + invokerUrlStr + ", cause: " + e.getMessage(), e));
+        } catch (WalleRpcException e) {
+            future = new CompletableFuture<>();
+            future.completeExceptionally(e);
         }
-        WalleClient currentClient = null;
-        if (clients.size() == 1) {
-            currentClient = clients.get(0);
-        } else {
-            if (AbstractLoadBalance.getLoadBanlance(routerType) != null) {
-                AbstractLoadBalance.getLoadBanlance(routerType).selector(clients, map);
+
+        Executor executor = callbackExecutor;
+        if (executor == null) {
+            return future;
+        }
+        CompletableFuture<WalleBizResponse> callbackFuture = new CompletableFuture<>();
+        future.whenCompleteAsync((response, cause) -> {
+            if (cause != null) {
+                callbackFuture.completeExceptionally(cause);
+            } else {
+                callbackFuture.complete(response);
             }
+        }, executor);
+        return callbackFuture;
+    }
+
+    /**
+     * Fire-and-forget call: returns once the request is queued for writing, the server never answers.
+     */
+    public void sendOneWay(WalleMessage walleMessage) {
+        WalleClient currentClient = selectorClient(walleMessage);
+        if (currentClient == null) {
+            throw new WalleRpcException(WalleRpcException.NO_CLIENT_EXCEPTION, "Failed to invoke remote method: " + invokerUrlStr + ", cause:selectorClient is null! ");
+        }
+        try {
+            currentClient.sendOneWay(walleMessage);
+        } catch (RemotingException e) {
+            throw new WalleRpcException(WalleRpcException.NETWORK_EXCEPTION, "Failed to invoke remote method: " + invokerUrlStr + ", cause: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Start a server-streaming call, see {@link ClientStream}.
+     */
+    public <E> ClientStream<E> openStream(WalleMessage walleMessage) {
+        WalleClient currentClient = selectorClient(walleMessage);
+        if (currentClient == null) {
+            throw new WalleRpcException(WalleRpcException.NO_CLIENT_EXCEPTION, "Failed to invoke remote method: " + invokerUrlStr + ", cause:selectorClient is null! ");
+        }
+        try {
+            return currentClient.openStream(walleMessage);
+        } catch (RemotingException e) {
+            throw new WalleRpcException(WalleRpcException.NETWORK_EXCEPTION, "Failed to invoke remote method: " + invokerUrlStr + ", cause: " + e.getMessage(), e);
         }
+    }
 
-        return currentClient;
+    private WalleClient selectorClient(WalleMessage walleMessage) {
+        List<WalleClient> current = clients;
+        if (current.isEmpty()) {
+            return null;
+        }
+        if (current.size() == 1) {
+            return current.get(0);
+        }
+        RouterType type = routerType;
+        LoadBalance loadBalance = AbstractLoadBalance.getLoadBanlance(type);
+        if (loadBalance == null) {
+            loadBalance = AbstractLoadBalance.getLoadBanlance(RouterType.RANDOM_LOADBALANCE);
+        }
+        Map<String, Object> map = null;
+        if (type == RouterType.ROUNDROBIN_LOADBALANCE) {
+            map = serviceMap;
+        } else if (type == RouterType.CONSISTENTHASH_LOADBALANCE) {
+            map = new HashMap<>();
+            map.put(AbstractLoadBalance.SERVICE_KEY, invokerUrlStr);
+            map.put(ConsistenthashLoadbalance.HASH_KEY, walleMessage.getHashKey());
+            map.put(ConsistenthashLoadbalance.HASH_NODES, hashNodes);
+        }
+        return loadBalance.selector(current, map);
     }
 
-    public void addToClients(WalleClient client) {
-        clients.add(client);
+    public synchronized void addToClients(WalleClient client) {
+        if (clients.contains(client)) {
+            return;
+        }
+        List<WalleClient> copy = new ArrayList<>(clients);
+        copy.add(client);
+        clients = Collections.unmodifiableList(copy);
     }
 
+    public synchronized void removeFromClients(WalleClient client) {
+        if (!clients.contains(client)) {
+            return;
+        }
+        List<WalleClient> copy = new ArrayList<>(clients);
+        copy.remove(client);
+        clients = Collections.unmodifiableList(copy);
+    }
+
+    /**
+     * Providers currently connected, a read-only snapshot.
+     */
     public List<WalleClient> getClients() {
         return clients;
     }
 
-    public void setClients(List<WalleClient> clients) {
-        this.clients = clients;
+    public synchronized void setClients(List<WalleClient> clients) {
+        this.clients = Collections.unmodifiableList(new ArrayList<>(clients));
     }
 
     public Class<T> getType() {
@@ -134,6 +250,47 @@ public class WalleInvoker<T> {
         this.routerType = routerType;
     }
 
+    public Executor getCallbackExecutor() {
+        return callbackExecutor;
+    }
+
+    public void setCallbackExecutor(Executor callbackExecutor) {
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    public byte getSerializer() {
+        return serializer;
+    }
+
+    public void setSerializer(byte serializer) {
+        SerializerFactory.enable(serializer, type);
+        this.serializer = serializer;
+    }
+
+    public boolean isOneWay() {
+        return oneWay;
+    }
+
+    public void setOneWay(boolean oneWay) {
+        this.oneWay = oneWay;
+    }
+
+    public int[] getHashArguments() {
+        return hashArguments;
+    }
+
+    public void setHashArguments(int[] hashArguments) {
+        this.hashArguments = hashArguments;
+    }
+
+    public int getHashNodes() {
+        return hashNodes;
+    }
+
+    public void setHashNodes(int hashNodes) {
+        this.hashNodes = hashNodes;
+    }
+
     public String getInvokerUrlStr() {
         return invokerUrlStr;
     }
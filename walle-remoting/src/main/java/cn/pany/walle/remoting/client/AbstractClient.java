@@ -42,11 +42,11 @@ import java.util.concurrent.locks.ReentrantLock;
 public abstract class AbstractClient implements WalleChannel<WalleMessage, WalleBizResponse> {
     private static final Logger log = LoggerFactory.getLogger(AbstractClient.class);
     private volatile URL url;
-    private final Lock connectLock = new ReentrantLock();
+    protected final Lock connectLock = new ReentrantLock();
     private final AtomicInteger reconnectCount = new AtomicInteger(0);//重连次数
     private long reconnectDelayTimes;//重连延迟时间
 
-    private static final ScheduledThreadPoolExecutor reconnectExecutorService = new ScheduledThreadPoolExecutor(2, new NamedThreadFactory("WalleClientReconnectTimer", true));
+    protected static final ScheduledThreadPoolExecutor reconnectExecutorService = new ScheduledThreadPoolExecutor(2, new NamedThreadFactory("WalleClientReconnectTimer", true));
     private volatile ScheduledFuture<?> reconnectExecutorFuture = null;
 
     public AbstractClient(URL url) throws RemotingException {
@@ -134,6 +134,16 @@ public abstract class AbstractClient implements WalleChannel<WalleMessage, Walle
      */
     protected abstract void doDisConnect() throws Throwable;
 
+    /**
+     * Close the connections to server.
+     */
+    protected void closeChannels() {
+        Channel channel = getChannel();
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
     /**
      * Get the connected channel.
      *
@@ -152,10 +162,7 @@ public abstract class AbstractClient implements WalleChannel<WalleMessage, Walle
         connectLock.lock();
         try {
             try {
-                Channel channel = getChannel();
-                if (channel != null) {
-                    channel.close();
-                }
+                closeChannels();
             } catch (Throwable e) {
                 log.warn(e.getMessage(), e);
             }
@@ -172,7 +179,10 @@ public abstract class AbstractClient implements WalleChannel<WalleMessage, Walle
     public void reConnect() {
         close();
         //  异步检查zookpeer是否还有这个服务器，如果有，则重连（重连失败则定时再重连）。如无，则停止。
-        if (checkIfNeedReconnect()) {
+        if (!checkIfNeedReconnect()) {
+            //注册中心里已经没有这台服务端了
+            giveUp();
+        } else {
             try {
                 reconnectCount.incrementAndGet();
                 connect();
@@ -211,6 +221,12 @@ public abstract class AbstractClient implements WalleChannel<WalleMessage, Walle
 
     public abstract boolean checkIfNeedReconnect();
 
+    /**
+     * Called when the client stops reconnecting because the server is gone for good.
+     */
+    protected void giveUp() {
+    }
+
     public InetSocketAddress getRemoteAddress() {
         Channel channel = getChannel();
         if (channel == null)
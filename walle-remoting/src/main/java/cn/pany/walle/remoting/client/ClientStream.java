@@ -0,0 +1,41 @@
+/*
+ * Copyright 2018-2019 Pany Young.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.pany.walle.remoting.client;
+
+import cn.pany.walle.remoting.protocol.InboundStream;
+import cn.pany.walle.remoting.protocol.OutboundStream;
+import cn.pany.walle.remoting.transport.TransportConfig;
+import io.netty.channel.Channel;
+
+/**
+ * Values of a server-streaming or bidirectional call, read by the caller as an {@link java.util.Iterator}.
+ * <p>
+ * Closing it before the end cancels the whole call: the server stops sending, and the values the
+ * caller still had to upload are dropped.
+ */
+public class ClientStream<T> extends InboundStream<T> {
+
+    ClientStream(Channel channel, long streamId, byte serializer, TransportConfig transportConfig, long timeoutMillis) {
+        super(channel, streamId, serializer, transportConfig, timeoutMillis);
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        //双向流：上传也一起停掉
+        OutboundStream.cancel(getChannel(), getStreamId());
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2018-2019 Pany Young.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.pany.walle.remoting.client;
+
+import cn.pany.walle.common.utils.NamedThreadFactory;
+import cn.pany.walle.remoting.protocol.OutboundStream;
+import cn.pany.walle.remoting.transport.TransportConfig;
+import io.netty.channel.Channel;
+
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Uploads the {@link Iterator} argument of a client-streaming or bidirectional call.
+ * <p>
+ * The caller's iterator may block, so it is pumped on a shared pool of daemon threads instead of the
+ * IO thread; a thread is only held while the server has credit left.
+ */
+final class ClientUpload extends OutboundStream {
+
+    private static final ExecutorService EXECUTOR = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+            new SynchronousQueue<>(), new NamedThreadFactory("WalleStreamUpload", true));
+
+    //上传结束或被取消后调用，可能为空
+    private final Runnable onClosed;
+
+    ClientUpload(Channel channel, long streamId, byte serializer, Iterator<?> values,
+                 TransportConfig transportConfig, Runnable onClosed) {
+        super(channel, streamId, serializer, values, transportConfig);
+        this.onClosed = onClosed;
+    }
+
+    @Override
+    protected void execute() {
+        try {
+            EXECUTOR.execute(this);
+        } catch (RejectedExecutionException e) {
+            reject(e);
+        }
+    }
+
+    @Override
+    protected void closed() {
+        if (onClosed != null) {
+            onClosed.run();
+        }
+    }
+}
@@ -112,7 +112,7 @@ public class HeartBeatReqHandler extends ChannelInboundHandlerAdapter {
         InetSocketAddress address = (InetSocketAddress) ctx.channel().remoteAddress();
         String ip = address.getAddress().getHostAddress();
         log.info("HeartBeatReqHandler 断开:" + ip + ":" + address.getPort());
-        walleClient.reConnect();
+        walleClient.reConnect(ctx.channel());
     }
 
     private class HeartBeatTask implements Runnable {
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2018-2019 Pany Young.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.pany.walle.remoting.client;
+
+
+import cn.pany.walle.common.protocol.MessageType;
+import cn.pany.walle.remoting.codec.FrameChunkEncoder;
+import cn.pany.walle.remoting.codec.WalleMessageDecoder;
+import cn.pany.walle.remoting.codec.WalleMessageEncoder;
+import cn.pany.walle.remoting.protocol.Header;
+import cn.pany.walle.remoting.protocol.LoginBody;
+import cn.pany.walle.remoting.protocol.MethodIdTable;
+import cn.pany.walle.remoting.protocol.WalleBatch;
+import cn.pany.walle.remoting.protocol.WalleMessage;
+import cn.pany.walle.remoting.serialize.SerializerFactory;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Logs in when the connection is up, keeps the server's {@link MethodIdTable} on the channel
+ * and switches the encoder to the frame version and compression the server agreed on.
+ * <p>
+ * Servers without login support never answer, the connection then keeps sending
+ * requests in the full form.
+ */
+public class LoginAuthReqHandler extends ChannelInboundHandlerAdapter {
+    private static final Logger log = LoggerFactory.getLogger(LoginAuthReqHandler.class);
+
+    private final int compressThreshold;
+
+    public LoginAuthReqHandler(int compressThreshold) {
+        this.compressThreshold = compressThreshold;
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        ctx.writeAndFlush(buildLoginReq((InetSocketAddress) ctx.channel().localAddress()));
+        ctx.fireChannelActive();
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg)
+            throws Exception {
+        WalleMessage message = (WalleMessage) msg;
+        if (message.getHeader() != null && message.getHeader().getType() == MessageType.LOGIN_RESP) {
+            LoginBody loginBody = (LoginBody) message.getBody();
+            if (loginBody != null && loginBody.getIsOk() == 0 && loginBody.getMethodIdTable() != null) {
+                ctx.channel().attr(MethodIdTable.KEY).set(loginBody.getMethodIdTable());
+                //服务端回的是它已经商定的，只会更少不会多
+                int serializers = loginBody.getSerializers() & SerializerFactory.supported();
+                ctx.channel().attr(SerializerFactory.PEER_SERIALIZERS).set(serializers);
+                ctx.pipeline().get(WalleMessageDecoder.class).useSerializers(serializers);
+                WalleBatch.peerFeatures(ctx.channel(), loginBody.getFeatures());
+                if (loginBody.getProtocolVersion() > 1) {
+                    int version = Math.min(loginBody.getProtocolVersion(), WalleMessageEncoder.LATEST_VERSION);
+                    WalleMessageEncoder encoder = ctx.pipeline().get(WalleMessageEncoder.class);
+                    encoder.useVersion(version);
+                    ctx.pipeline().get(FrameChunkEncoder.class).useVersion(version);
+                    if ((loginBody.getCompressions() & WalleMessageEncoder.COMPRESSION_SNAPPY) != 0) {
+                        encoder.useCompression(compressThreshold);
+                    }
+                }
+                log.debug("channel [{}] login success, {}", ctx.channel(), loginBody.getMethodIdTable());
+            } else {
+                log.warn("channel [{}] login refused, keep using full requests", ctx.channel());
+            }
+        } else {
+            ctx.fireChannelRead(msg);
+        }
+    }
+
+    private WalleMessage buildLoginReq(InetSocketAddress address) {
+        WalleMessage message = new WalleMessage();
+        Header header = new Header();
+        header.setType(MessageType.LOGIN_REQ);
+        message.setHeader(header);
+
+        LoginBody loginBody = new LoginBody();
+        loginBody.setPort(address.getPort());
+        loginBody.setIp(address.getAddress().getHostAddress());
+        loginBody.setProtocolVersion(WalleMessageEncoder.LATEST_VERSION);
+        loginBody.setSerializers(SerializerFactory.supported());
+        loginBody.setCompressions(WalleMessageEncoder.COMPRESSION_SNAPPY);
+        loginBody.setFeatures(WalleBatch.FEATURE);
+        message.setBody(loginBody);
+        return message;
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2018-2019 Pany Young.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.pany.walle.remoting.client;
+
+/**
+ * Moving average of a provider's response time that jumps up to a slow response at once and decays
+ * back over {@link #DECAY_NANOS}. Time decays it too, also when nothing is observed, so a provider
+ * that was slow and got no traffic since is tried again.
+ */
+final class PeakEwma {
+
+    private static final double DECAY_NANOS = 10_000_000_000d;
+
+    private double value;
+    private long stamp = System.nanoTime();
+
+    void observe(long rttNanos) {
+        observe(rttNanos, System.nanoTime());
+    }
+
+    //now 由调用方给出，测试里可以不依赖真实时间
+    synchronized void observe(long rttNanos, long now) {
+        double weight = weight(now);
+        double decayed = value * weight;
+        //变慢马上生效，变快按时间慢慢降下来
+        value = rttNanos > decayed ? rttNanos : decayed + rttNanos * (1 - weight);
+        stamp = now;
+    }
+
+    /**
+     * The average as of now, 0 before the first response.
+     */
+    double get() {
+        return get(System.nanoTime());
+    }
+
+    synchronized double get(long now) {
+        return value * weight(now);
+    }
+
+    private double weight(long now) {
+        return Math.exp(-Math.max(0, now - stamp) / DECAY_NANOS);
+    }
+}
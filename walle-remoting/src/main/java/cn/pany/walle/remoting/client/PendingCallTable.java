@@ -0,0 +1,197 @@
+/*
+ * Copyright 2018-2019 Pany Young.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.pany.walle.remoting.client;
+
+import cn.pany.walle.remoting.exception.WalleRpcException;
+import io.netty.channel.Channel;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Calls waiting for a response on one connection, keyed by the request id carried in
+ * {@code Header.sessionID}.
+ * <p>
+ * Open addressing with linear probing over primitive arrays, so lookups do not box the key.
+ * Each channel owns its own table and lock, which keeps contention per connection.
+ */
+public class PendingCallTable {
+
+    public static final AttributeKey<PendingCallTable> KEY = AttributeKey.valueOf("walle.pendingCalls");
+
+    //0 表示空槽，请求 id 从 1 开始
+    private static final long EMPTY = 0L;
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final AtomicLong idGenerator = new AtomicLong();
+
+    private long[] keys = new long[INITIAL_CAPACITY];
+    private WalleResponseFuture[] values = new WalleResponseFuture[INITIAL_CAPACITY];
+    private int size;
+
+    public static PendingCallTable get(Channel channel) {
+        Attribute<PendingCallTable> attr = channel.attr(KEY);
+        PendingCallTable table = attr.get();
+        if (table == null) {
+            table = new PendingCallTable();
+            PendingCallTable old = attr.setIfAbsent(table);
+            if (old != null) {
+                table = old;
+            } else {
+                //连接关闭时让还在等待的调用立即失败，而不是等超时
+                channel.closeFuture().addListener(future -> close(channel));
+            }
+        }
+        return table;
+    }
+
+    private static void close(Channel channel) {
+        PendingCallTable table = channel.attr(KEY).getAndSet(null);
+        if (table == null) {
+            return;
+        }
+        for (WalleResponseFuture future : table.clear()) {
+            future.failed(new WalleRpcException(WalleRpcException.NETWORK_EXCEPTION,
+                    "Channel " + channel + " closed before requestId [" + future.getRequestId() + "] was answered"));
+        }
+    }
+
+    public long nextId() {
+        long id = idGenerator.incrementAndGet();
+        return id == EMPTY ? idGenerator.incrementAndGet() : id;
+    }
+
+    public synchronized void put(long id, WalleResponseFuture future) {
+        if ((size + 1) << 1 > keys.length) {
+            resize(keys.length << 1);
+        }
+        int mask = keys.length - 1;
+        int i = index(id, mask);
+        while (keys[i] != EMPTY) {
+            if (keys[i] == id) {
+                values[i] = future;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = id;
+        values[i] = future;
+        size++;
+    }
+
+    public synchronized WalleResponseFuture get(long id) {
+        int i = find(id);
+        return i < 0 ? null : values[i];
+    }
+
+    public synchronized WalleResponseFuture remove(long id) {
+        int i = find(id);
+        if (i < 0) {
+            return null;
+        }
+        WalleResponseFuture future = values[i];
+        removeAt(i);
+        return future;
+    }
+
+    public synchronized boolean remove(long id, WalleResponseFuture future) {
+        int i = find(id);
+        if (i < 0 || values[i] != future) {
+            return false;
+        }
+        removeAt(i);
+        return true;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    private List<WalleResponseFuture> clear() {
+        List<WalleResponseFuture> all = new ArrayList<>();
+        synchronized (this) {
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] != null) {
+                    all.add(values[i]);
+                }
+            }
+            keys = new long[INITIAL_CAPACITY];
+            values = new WalleResponseFuture[INITIAL_CAPACITY];
+            size = 0;
+        }
+        return all;
+    }
+
+    private int find(long id) {
+        int mask = keys.length - 1;
+        int i = index(id, mask);
+        while (keys[i] != EMPTY) {
+            if (keys[i] == id) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    //backward shift deletion，避免使用墓碑标记
+    private void removeAt(int i) {
+        int mask = keys.length - 1;
+        keys[i] = EMPTY;
+        values[i] = null;
+        size--;
+        int j = (i + 1) & mask;
+        while (keys[j] != EMPTY) {
+            int home = index(keys[j], mask);
+            //j 上的元素可以移到空出来的 i 上
+            if (((j - home) & mask) >= ((j - i) & mask)) {
+                keys[i] = keys[j];
+                values[i] = values[j];
+                keys[j] = EMPTY;
+                values[j] = null;
+                i = j;
+            }
+            j = (j + 1) & mask;
+        }
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        WalleResponseFuture[] oldValues = values;
+        keys = new long[capacity];
+        values = new WalleResponseFuture[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int j = index(oldKeys[i], mask);
+                while (keys[j] != EMPTY) {
+                    j = (j + 1) & mask;
+                }
+                keys[j] = oldKeys[i];
+                values[j] = oldValues[i];
+            }
+        }
+    }
+
+    static int index(long id, int mask) {
+        //ids are sequential, mix the bits so neighbours do not cluster
+        long h = id * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+}
@@ -18,44 +18,49 @@ package cn.pany.walle.remoting.client;
 import cn.pany.walle.common.URL;
 import cn.pany.walle.common.constants.WalleConstant;
 import cn.pany.walle.common.model.InterfaceDetail;
+import cn.pany.walle.common.protocol.MessageType;
 import cn.pany.walle.common.utils.InvokerUtil;
 import cn.pany.walle.common.utils.NetUtils;
 import cn.pany.walle.remoting.api.WalleApp;
 import cn.pany.walle.remoting.api.WalleInvoker;
+import cn.pany.walle.remoting.codec.FrameChunkEncoder;
 import cn.pany.walle.remoting.codec.WalleMessageDecoder;
 import cn.pany.walle.remoting.codec.WalleMessageEncoder;
 import cn.pany.walle.remoting.exception.RemotingException;
 import cn.pany.walle.remoting.exception.WalleRpcException;
+import cn.pany.walle.remoting.protocol.Header;
+import cn.pany.walle.remoting.protocol.MethodIdTable;
+import cn.pany.walle.remoting.protocol.OutboundStream;
 import cn.pany.walle.remoting.protocol.SessionObj;
+import cn.pany.walle.remoting.protocol.StreamFrame;
 import cn.pany.walle.remoting.protocol.WalleBizRequest;
 import cn.pany.walle.remoting.protocol.WalleBizResponse;
 import cn.pany.walle.remoting.protocol.WalleMessage;
-import cn.pany.walle.remoting.task.CheckTimeoutResponseTask;
-import com.alibaba.fastjson.JSON;
+import cn.pany.walle.remoting.serialize.SerializerFactory;
+import cn.pany.walle.remoting.transport.TransportConfig;
+import cn.pany.walle.remoting.transport.TransportResources;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.handler.timeout.ReadTimeoutHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Date;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Created by pany on 16/9/6.
@@ -63,30 +68,29 @@ import java.util.concurrent.TimeUnit;
 public class WalleClient extends AbstractClient {
     private static final Logger log = LoggerFactory.getLogger(WalleClient.class);
 
-    public static final ConcurrentHashMap<String, CountDownLatch> pushFutureMap = new ConcurrentHashMap();
 
-    public static final ConcurrentHashMap<String, WalleBizResponse> responseMap = new ConcurrentHashMap();
-
-    private static final ScheduledExecutorService scheduledExecutorService = Executors.newSingleThreadScheduledExecutor();
 
+    private static final long SLOT_RECONNECT_DELAY = 2000L;
 
     private Bootstrap bootstrap;
+    private TransportConfig transportConfig;
     //    private URL url;
-    private volatile Channel channel; // volatile, please copy reference to use
+    //同一个服务端的多条连接，每个槽位单独重连
+    private final AtomicReferenceArray<Channel> channels;
+    //发出去还没结束的调用数，给负载均衡用；很多线程同时改，用分段计数
+    private final LongAdder active = new LongAdder();
+    //响应时间，超时和网络错误按超时时间算
+    private final PeakEwma responseTime = new PeakEwma();
+    //shutdown 之后不再重连
+    private volatile boolean shutdown;
 
     public SessionObj sessionObj = new SessionObj();
 
     private WalleApp walleApp;
     private Set<InterfaceDetail> interfaceSet;
     private Map<String, WalleClient> interfaceMap = new HashMap<>();
-
-    static {
-        Long timeout = WalleConstant.DEFAULT_TIMEOUT;
-        log.info("CheckTimeoutResponseTask start");
-        //TODO 后续改成单例而不是用static？
-        scheduledExecutorService.scheduleWithFixedDelay(new CheckTimeoutResponseTask(), 0, timeout, TimeUnit.MILLISECONDS);
-    }
-
+    //各服务在这台服务端上的权重，注册中心数据变化时整体替换
+    private volatile Map<String, Integer> weights = Collections.emptyMap();
 
     public WalleClient(WalleApp walleApp, URL url, Set<InterfaceDetail> interfaceSet) throws RemotingException {
         super(url);
@@ -95,11 +99,13 @@ public class WalleClient extends AbstractClient {
 //        this.walleRegistry = walleRegistry;
         sessionObj.setRemoteIP(url.getHost());
         sessionObj.setPort(url.getPort());
-        sessionObj.setChannel(channel);
+        int connections = walleApp == null ? WalleConstant.DEFAULT_CONNECTIONS : walleApp.getConnections();
+        this.channels = new AtomicReferenceArray<>(Math.max(1, connections));
         for (InterfaceDetail interfaceDetail : interfaceSet) {
             String interfaceUrl = InvokerUtil.formatInvokerUrl(interfaceDetail.getClassName(), null, interfaceDetail.getVersion());
             interfaceMap.put(interfaceUrl, this);
         }
+        updateWeights(interfaceSet);
 //        init();
     }
 
@@ -112,23 +118,26 @@ public class WalleClient extends AbstractClient {
         }
         log.info("WalleClient to doOpen,address is:[{}]", getUrl().getAddress());
 
-        EventLoopGroup group = new NioEventLoopGroup();
+        transportConfig = walleApp == null ? new TransportConfig() : walleApp.getTransportConfig();
+        EventLoopGroup group = TransportResources.acquire(TransportResources.CLIENT_WORKER, transportConfig);
         try {
             ChannelHandler handler = new ChannelInitializer<SocketChannel>() {
                 @Override
                 public void initChannel(SocketChannel channel) throws Exception {
-                    channel.pipeline().addLast("WalleMessageDecoder", new WalleMessageDecoder(1024 * 1024, 4, 4))
+                    channel.pipeline().addLast("WalleMessageDecoder", new WalleMessageDecoder(1024 * 1024, 4, 4, transportConfig.isLazyDecode()))
+                            .addLast("FrameChunkEncoder", new FrameChunkEncoder())
                             .addLast("WallesMessageEncoder", new WalleMessageEncoder())
                             .addLast("ReadTimeoutHandler", new ReadTimeoutHandler(50))
-//                                    .addLast("LoginAuthHandler", new LoginAuthReqHandler())
+                            .addLast("LoginAuthHandler", new LoginAuthReqHandler(transportConfig.getCompressThreshold()))
                             .addLast("HeartBeatHandler", new HeartBeatReqHandler(WalleClient.this))
                             .addLast("WalleClientHandler", new WalleClientHandler());
                 }
             };
             bootstrap = new Bootstrap();
-            bootstrap.group(group).channel(NioSocketChannel.class)
+            bootstrap.group(group).channel(transportConfig.socketChannelClass())
                     .handler(handler)
                     .option(ChannelOption.SO_KEEPALIVE, true);
+            transportConfig.applyClient(bootstrap);
             log.info("WalleClient doOpen success!address is:[{}]", getUrl().getAddress());
         } catch (Exception e) {
             e.printStackTrace();
@@ -140,41 +149,122 @@ public class WalleClient extends AbstractClient {
 
     }
 
+    /**
+     * Close the connections and release the shared event loop group, the client can not be opened again.
+     */
+    public synchronized void shutdown() {
+        shutdown = true;
+        close();
+        if (bootstrap != null) {
+            bootstrap = null;
+            TransportResources.release(TransportResources.CLIENT_WORKER, transportConfig);
+        }
+    }
+
     @Override
     protected void doConnect() throws Throwable {
+        RemotingException failure = null;
+        for (int slot = 0; slot < channels.length(); slot++) {
+            Channel channel = channels.get(slot);
+            if (channel != null && channel.isActive()) {
+                continue;
+            }
+            try {
+                connect(slot);
+            } catch (RemotingException e) {
+                failure = e;
+                log.error("", e);
+            }
+        }
+        if (failure != null) {
+            if (!isConnected()) {
+                throw failure;
+            }
+            //部分连接成功，失败的槽位稍后单独重连
+            for (int slot = 0; slot < channels.length(); slot++) {
+                if (channels.get(slot) == null) {
+                    scheduleReconnect(slot);
+                }
+            }
+        }
+    }
+
+    private void connect(int slot) throws RemotingException {
+        if (shutdown) {
+            throw new RemotingException(this, "walle client to server " + getRemoteAddress() + " is shut down");
+        }
         long start = System.currentTimeMillis();
         ChannelFuture future = bootstrap.connect(getUrl().getHost(), getUrl().getPort());
-        try {
-            boolean ret = future.awaitUninterruptibly(3000, TimeUnit.MILLISECONDS);
-
-            if (ret && future.isSuccess()) {
-                Channel newChannel = future.channel();
-                try {
-                    // 关闭旧的连接
-                    Channel oldChannel = WalleClient.this.channel; // copy reference
-                    if (oldChannel != null) {
-                        if (log.isInfoEnabled()) {
-                            log.info("Close old netty channel " + oldChannel + " on create new netty channel " + newChannel);
-                        }
-                        oldChannel.close();
-                    }
-                } finally {
-                    WalleClient.this.channel = newChannel;
+        boolean ret = future.awaitUninterruptibly(3000, TimeUnit.MILLISECONDS);
+        if (ret && future.isSuccess()) {
+            Channel newChannel = future.channel();
+            // 先换上新连接再关闭旧连接，旧连接的 handlerRemoved 不会再触发重连
+            Channel oldChannel = channels.getAndSet(slot, newChannel);
+            if (oldChannel != null) {
+                if (log.isInfoEnabled()) {
+                    log.info("Close old netty channel " + oldChannel + " on create new netty channel " + newChannel);
                 }
-            } else if (future.cause() != null) {
-                throw new RemotingException(this, "walle client failed to connect to server "
-                        + getRemoteAddress() + ", error message is:" + future.cause().getMessage(), future.cause());
-            } else {
-                throw new RemotingException(this, "walle client failed to connect to server "
-                        + getRemoteAddress() + "ms (elapsed: " + (System.currentTimeMillis() - start) + "ms) from netty client "
-                        + NetUtils.getLocalHost());
+                oldChannel.close();
             }
+            return;
+        }
+        future.cancel(true);
+        if (future.cause() != null) {
+            throw new RemotingException(this, "walle client failed to connect to server "
+                    + getRemoteAddress() + ", error message is:" + future.cause().getMessage(), future.cause());
+        } else {
+            throw new RemotingException(this, "walle client failed to connect to server "
+                    + getRemoteAddress() + "ms (elapsed: " + (System.currentTimeMillis() - start) + "ms) from netty client "
+                    + NetUtils.getLocalHost());
+        }
+    }
+
+    /**
+     * Called when one pooled connection is lost.
+     * Only that slot is reconnected while the others keep serving,
+     * the whole client is reconnected once no connection is left.
+     */
+    public void reConnect(Channel lost) {
+        int slot = indexOf(lost);
+        if (slot < 0 || !channels.compareAndSet(slot, lost, null)) {
+            //已经被替换或主动关闭
+            return;
+        }
+        if (isConnected()) {
+            //不在 IO 线程里阻塞等待建连
+            reconnectExecutorService.execute(() -> reconnectSlot(slot));
+        } else {
+            reConnect();
+        }
+    }
+
+    private void reconnectSlot(int slot) {
+        connectLock.lock();
+        try {
+            //整个客户端已经断开的话交给 reConnect() 处理
+            if (!isConnected() || channels.get(slot) != null || !checkIfNeedReconnect()) {
+                return;
+            }
+            connect(slot);
+        } catch (RemotingException e) {
+            log.error("", e);
+            scheduleReconnect(slot);
         } finally {
-            boolean isConnected = isConnected();
-            if (!isConnected) {
-                future.cancel(true);
+            connectLock.unlock();
+        }
+    }
+
+    private void scheduleReconnect(int slot) {
+        reconnectExecutorService.schedule(() -> reconnectSlot(slot), SLOT_RECONNECT_DELAY, TimeUnit.MILLISECONDS);
+    }
+
+    private int indexOf(Channel channel) {
+        for (int slot = 0; slot < channels.length(); slot++) {
+            if (channels.get(slot) == channel) {
+                return slot;
             }
         }
+        return -1;
     }
 
     @Override
@@ -211,6 +301,15 @@ public class WalleClient extends AbstractClient {
         }
     }
 
+    @Override
+    protected void giveUp() {
+        if (walleApp != null) {
+            walleApp.removeClient(this);
+        } else {
+            shutdown();
+        }
+    }
+
     @Override
     protected void doDisConnect() {
         log.info("doDisConnect:" + getUrl().getAddress());
@@ -219,19 +318,58 @@ public class WalleClient extends AbstractClient {
             for (InterfaceDetail interfaceDetail : interfaceSet) {
                 WalleInvoker walleInvoker = WalleInvoker.walleInvokerMap.get(interfaceDetail.getInterfaceUrl());
                 if (walleInvoker != null) {
-                    walleInvoker.getClients().remove(this);
+                    walleInvoker.removeFromClients(this);
                 }
             }
         }
     }
 
+    @Override
+    protected void closeChannels() {
+        for (int slot = 0; slot < channels.length(); slot++) {
+            Channel channel = channels.getAndSet(slot, null);
+            if (channel != null) {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Pick the connection with the fewest pending calls.
+     * The scan starts at a slot chosen by the calling thread, so ties keep a thread on the same connection.
+     */
     @Override
     protected Channel getChannel() {
-        return this.channel;
+        int size = channels.length();
+        if (size == 1) {
+            return channels.get(0);
+        }
+        int start = (int) (Thread.currentThread().getId() % size);
+        Channel selected = null;
+        int selectedPending = Integer.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            Channel channel = channels.get((start + i) % size);
+            if (channel == null || !channel.isActive()) {
+                continue;
+            }
+            PendingCallTable table = channel.attr(PendingCallTable.KEY).get();
+            int pending = table == null ? 0 : table.size();
+            if (pending < selectedPending) {
+                selected = channel;
+                selectedPending = pending;
+                if (pending == 0) {
+                    break;
+                }
+            }
+        }
+        return selected;
     }
 
     @Override
     public boolean checkIfNeedReconnect() {
+        if (shutdown || walleApp == null) {
+            return false;
+        }
         try {
             List<URL> urlList = walleApp.getServerList();
             for (URL url : urlList) {
@@ -249,63 +387,296 @@ public class WalleClient extends AbstractClient {
 
     @Override
     public WalleBizResponse send(WalleMessage request) throws RemotingException {
+        WalleResponseFuture future = call(request, true);
+        if (future == null) {
+            return null;
+        }
+        try {
+            //超时由 TimeoutScheduler 统一处理，这里不再自己计时
+            return future.getResponse();
+        } catch (InterruptedException e) {
+            if (future.removePending()) {
+                future.cancel(false);
+            }
+            Thread.currentThread().interrupt();
+            log.error("requestId [{" + future.getRequestId() + "}] is interrupted", e);
+            return null;
+        } catch (Exception e) {
+            log.error("requestId [{" + future.getRequestId() + "}] is error", e);
+            return null;
+        }
+    }
+
+    //写到连接上的是副本：方法 id、序列化方式、流参数占位只改副本，调用方的请求还能打日志或换一台服务端重发
+    private static WalleMessage copyForWire(WalleMessage message) {
+        Header header = message.getHeader();
+        Header wireHeader = new Header();
+        wireHeader.setCrcCode(header.getCrcCode());
+        wireHeader.setType(header.getType());
+        wireHeader.setPriority(header.getPriority());
+        wireHeader.setSerializer(header.getSerializer());
+        wireHeader.setAttachment(header.getAttachment() == null ? new HashMap<>() : new HashMap<>(header.getAttachment()));
+        WalleBizRequest request = (WalleBizRequest) message.getBody();
+        WalleBizRequest wireRequest = new WalleBizRequest();
+        wireRequest.setRequestId(request.getRequestId());
+        wireRequest.setClassName(request.getClassName());
+        wireRequest.setMethodName(request.getMethodName());
+        wireRequest.setVersion(request.getVersion());
+        wireRequest.setParameterTypes(request.getParameterTypes());
+        wireRequest.setParameters(request.getParameters() == null ? null : request.getParameters().clone());
+        wireRequest.setMethodId(request.getMethodId());
+        WalleMessage wire = new WalleMessage();
+        wire.setHeader(wireHeader);
+        wire.setBody(wireRequest);
+        wire.setHashKey(message.getHashKey());
+        return wire;
+    }
+
+    //连接登录时拿到了方法 id 表，就只发 id；序列化方式要对端支持，否则用默认的
+    private void prepare(Channel channel, WalleMessage message) {
+        WalleBizRequest request = (WalleBizRequest) message.getBody();
+        Header header = message.getHeader();
+        MethodIdTable methodIdTable = channel.attr(MethodIdTable.KEY).get();
+        if (methodIdTable != null && request.getMethodId() == 0) {
+            MethodIdTable.MethodId method = methodIdTable.find(request);
+            if (method != null) {
+                if (header.getSerializer() == SerializerFactory.DEFAULT) {
+                    header.setSerializer(method.getSerializer());
+                }
+                request.setMethodId(method.getId());
+                request.setClassName(null);
+                request.setMethodName(null);
+                request.setVersion(null);
+                request.setParameterTypes(null);
+            }
+        }
+        if (header.getSerializer() != SerializerFactory.DEFAULT) {
+            Integer peerSerializers = channel.attr(SerializerFactory.PEER_SERIALIZERS).get();
+            if (peerSerializers == null || !SerializerFactory.isSupported(peerSerializers, header.getSerializer())
+                    || SerializerFactory.get(header.getSerializer()) == null) {
+                header.setSerializer(SerializerFactory.DEFAULT);
+            }
+        }
+    }
+
+    /**
+     * Write the request without waiting for the response.
+     * The returned future is completed by the IO thread when the response arrives,
+     * or failed with {@link WalleRpcException#TIMEOUT_EXCEPTION} when {@link WalleConstant#DEFAULT_TIMEOUT} elapses.
+     */
+    public WalleResponseFuture sendAsync(WalleMessage request) throws RemotingException {
+        return call(request, false);
+    }
+
+    private WalleResponseFuture call(WalleMessage message, boolean decodeInCaller) throws RemotingException {
         if (!isConnected()) {
             connect();
         }
 
         //这里强转可能会失败
-        if (request.getBody() instanceof WalleBizRequest) {
-            String requestId = ((WalleBizRequest) request.getBody()).getRequestId();
-            CountDownLatch countDownLatch = new CountDownLatch(1);
-            pushFutureMap.putIfAbsent(requestId, countDownLatch);
-
-            try {
-                getChannel().writeAndFlush(request);
-//            if(countDownLatch.await(WalleConstant.DEFAULT_TIMEOUT, TimeUnit.SECONDS)){
-                Long timeout = WalleConstant.DEFAULT_TIMEOUT;
-                if (countDownLatch.await(timeout, TimeUnit.MILLISECONDS)) {
-                    WalleBizResponse response = responseMap.get(requestId);
-                    responseMap.remove(requestId);
-                    return response;
-                } else {
-                    pushFutureMap.remove(requestId);
-                    WalleBizResponse response = responseMap.get(requestId);
-                    responseMap.remove(requestId);
-
-                    if (response == null) {
-                        throw new WalleRpcException(WalleRpcException.TIMEOUT_EXCEPTION);
+        if (!(message.getBody() instanceof WalleBizRequest)) {
+            return null;
+        }
+        Channel channel = getChannel();
+        if (channel == null) {
+            throw new RemotingException(this, "walle client has no active connection to server " + getRemoteAddress());
+        }
+        WalleMessage request = copyForWire(message);
+        Iterator<?> upload = detachStream(request);
+        prepare(channel, request);
+        PendingCallTable table = PendingCallTable.get(channel);
+        long requestId = table.nextId();
+        request.getHeader().setSessionID(requestId);
+        WalleResponseFuture future = new WalleResponseFuture(table, requestId);
+        if (decodeInCaller) {
+            future.decodeInCaller();
+        }
+        table.put(requestId, future);
+        active.increment();
+        long start = System.nanoTime();
+        future.whenComplete((response, cause) -> {
+            active.decrement();
+            //上传的调用耗时取决于上传多少，不算进响应时间
+            if (upload == null) {
+                responseTime.observe(cause == null ? System.nanoTime() - start
+                        : Math.max(System.nanoTime() - start, TimeUnit.MILLISECONDS.toNanos(WalleConstant.DEFAULT_TIMEOUT)));
+            }
+        });
+        if (upload == null) {
+            future.scheduleTimeout(WalleConstant.DEFAULT_TIMEOUT);
+        }
+        //上传完才开始计算超时，大批量上传不会被超时打断
+        ClientUpload uploading = upload == null ? null
+                : new ClientUpload(channel, requestId, request.getHeader().getSerializer(), upload, transportConfig, () -> {
+                    if (!future.isDone()) {
+                        future.scheduleTimeout(WalleConstant.DEFAULT_TIMEOUT);
                     }
+                });
+        //先登记再写请求，写失败时的取消才找得到它
+        if (uploading != null) {
+            uploading.register();
+        }
 
-                    return response;
+        transportConfig.write(channel, request).addListener((ChannelFutureListener) writeFuture -> {
+            if (!writeFuture.isSuccess() && future.removePending()) {
+                future.failed(new WalleRpcException(WalleRpcException.NETWORK_EXCEPTION,
+                        "Failed to send request [" + requestId + "] to " + getRemoteAddress(), writeFuture.cause()));
+                OutboundStream.cancel(channel, requestId);
+            }
+        });
+        if (uploading != null) {
+            uploading.start();
+        }
+        return future;
+    }
+
+    /**
+     * Write a {@code ONE_WAY} request and return as soon as it is queued: no pending call is registered
+     * and the server sends nothing back. A failed write is only logged.
+     */
+    public void sendOneWay(WalleMessage message) throws RemotingException {
+        if (!isConnected()) {
+            connect();
+        }
+        Channel channel = getChannel();
+        if (channel == null) {
+            throw new RemotingException(this, "walle client has no active connection to server " + getRemoteAddress());
+        }
+        WalleMessage request = copyForWire(message);
+        request.getHeader().setType(MessageType.ONE_WAY);
+        Iterator<?> upload = detachStream(request);
+        prepare(channel, request);
+        //上传的流靠 sessionID 对上，单向调用带流参数时也要一个 id
+        long streamId = upload == null ? 0 : PendingCallTable.get(channel).nextId();
+        request.getHeader().setSessionID(streamId);
+        ClientUpload uploading = upload == null ? null
+                : new ClientUpload(channel, streamId, request.getHeader().getSerializer(), upload, transportConfig, null);
+        if (uploading != null) {
+            uploading.register();
+        }
+        transportConfig.write(channel, request).addListener((ChannelFutureListener) writeFuture -> {
+            if (!writeFuture.isSuccess()) {
+                log.warn("Failed to send one-way request to " + getRemoteAddress(), writeFuture.cause());
+                if (upload != null) {
+                    OutboundStream.cancel(channel, streamId);
                 }
-            } catch (InterruptedException e) {
-                log.error("requestId [{" + requestId + "}] is time out", e);
-                return null;
-            } catch (Exception e) {
-                log.error("requestId [{" + requestId + "}] is error", e);
-                return null;
             }
+        });
+        if (uploading != null) {
+            uploading.start();
         }
+    }
 
-        return null;
+    /**
+     * Call a server-streaming method, the values are read from the returned iterator as they arrive.
+     * When the method also takes an {@link Iterator} the call is bidirectional, that argument is
+     * uploaded while the caller reads.
+     */
+    public <T> ClientStream<T> openStream(WalleMessage message) throws RemotingException {
+        if (!isConnected()) {
+            connect();
+        }
+        Channel channel = getChannel();
+        if (channel == null) {
+            throw new RemotingException(this, "walle client has no active connection to server " + getRemoteAddress());
+        }
+        WalleMessage request = copyForWire(message);
+        Iterator<?> upload = detachStream(request);
+        //服务端只对要求流式返回的请求回流，其余的 Iterator 返回值照普通结果回
+        request.getHeader().getAttachment().put(StreamFrame.RESULT_ATTACHMENT, "1");
+        prepare(channel, request);
+        //和普通调用共用 id，服务端按 sessionID 区分
+        long streamId = PendingCallTable.get(channel).nextId();
+        request.getHeader().setSessionID(streamId);
+        ClientStream<T> stream = new ClientStream<>(channel, streamId, request.getHeader().getSerializer(),
+                transportConfig, WalleConstant.DEFAULT_TIMEOUT);
+        stream.register();
+        ClientUpload uploading = upload == null ? null
+                : new ClientUpload(channel, streamId, request.getHeader().getSerializer(), upload, transportConfig, null);
+        if (uploading != null) {
+            uploading.register();
+        }
 
+        transportConfig.write(channel, request).addListener((ChannelFutureListener) writeFuture -> {
+            if (!writeFuture.isSuccess()) {
+                stream.failed(new WalleRpcException(WalleRpcException.NETWORK_EXCEPTION,
+                        "Failed to send request [" + streamId + "] to " + getRemoteAddress(), writeFuture.cause()));
+                OutboundStream.cancel(channel, streamId);
+            }
+        });
+        if (uploading != null) {
+            uploading.start();
+        }
+        return stream;
     }
 
+    /**
+     * Take the first {@link Iterator} argument out of the request, its values are sent after the request
+     * as a stream. Returns null when the method has no such parameter.
+     */
+    private static Iterator<?> detachStream(WalleMessage message) {
+        WalleBizRequest request = (WalleBizRequest) message.getBody();
+        Class<?>[] types = request.getParameterTypes();
+        if (types == null) {
+            return null;
+        }
+        for (int i = 0; i < types.length; i++) {
+            if (types[i] == Iterator.class) {
+                Object[] parameters = request.getParameters();
+                Iterator<?> values = (Iterator<?>) parameters[i];
+                //占位，服务端收到后换成读取上传的迭代器；不能用 null，protostuff 会把数组里的 null 去掉
+                parameters[i] = i;
+                message.getHeader().getAttachment().put(StreamFrame.PARAMETER_ATTACHMENT, String.valueOf(i));
+                return values == null ? Collections.emptyIterator() : values;
+            }
+        }
+        return null;
+    }
 
-    public static void received(String requestId, WalleBizResponse walleBizResponse) {
-        CountDownLatch countDownLatch = pushFutureMap.get(requestId);
-        if (countDownLatch != null) {
-            walleBizResponse.setReceiveTime(new Date());
-            walleBizResponse.setTimeOutNum(WalleConstant.DEFAULT_TIMEOUT);
-            responseMap.putIfAbsent(requestId, walleBizResponse);
-            countDownLatch.countDown();
-            pushFutureMap.remove(requestId);
-        } else {
-            log.info("requestId :[{}] not in pushFutureMap,rep:[{}]", requestId, JSON.toJSONString(walleBizResponse));
+    /**
+     * Load balancing weight of the service on this provider, as published in the registry.
+     */
+    public int getWeight(String interfaceUrl) {
+        Integer weight = weights.get(interfaceUrl);
+        return weight == null ? WalleConstant.DEFAULT_WEIGHT : weight;
+    }
+
+    /**
+     * Take the weights from the provider's latest registry data, the connections are kept.
+     */
+    public void updateWeights(Set<InterfaceDetail> interfaceDetails) {
+        Map<String, Integer> updated = new HashMap<>();
+        if (interfaceDetails != null) {
+            for (InterfaceDetail interfaceDetail : interfaceDetails) {
+                if (interfaceDetail.getWeight() != null) {
+                    String interfaceUrl = InvokerUtil.formatInvokerUrl(interfaceDetail.getClassName(), null, interfaceDetail.getVersion());
+                    updated.put(interfaceUrl, Math.max(0, interfaceDetail.getWeight()));
+                }
+            }
         }
+        weights = updated;
+    }
 
+    /**
+     * Calls sent to this provider that have not completed yet.
+     */
+    public long getActive() {
+        return active.sum();
     }
 
+    /**
+     * Expected cost of one more call to this provider: the average response time in nanoseconds,
+     * scaled by the calls already waiting on it. A provider that has not answered yet costs nothing
+     * while idle and a timeout per call queued on it otherwise.
+     */
+    public double getLoad() {
+        long waiting = active.sum();
+        double rtt = responseTime.get();
+        if (rtt == 0) {
+            return waiting == 0 ? 0 : TimeUnit.MILLISECONDS.toNanos(WalleConstant.DEFAULT_TIMEOUT) * (double) waiting;
+        }
+        return rtt * (waiting + 1);
+    }
 
     public WalleApp getWalleApp() {
         return walleApp;
@@ -331,13 +702,6 @@ public class WalleClient extends AbstractClient {
         this.interfaceMap = interfaceMap;
     }
 
-    public void setChannel(Channel channel) {
-        this.channel = channel;
-        if (sessionObj != null) {
-            sessionObj.setChannel(channel);
-        }
-    }
-
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -17,6 +17,11 @@ package cn.pany.walle.remoting.client;
 
 import cn.pany.walle.common.protocol.MessageType;
 import cn.pany.walle.remoting.protocol.Header;
+import cn.pany.walle.remoting.protocol.InboundStream;
+import cn.pany.walle.remoting.protocol.LazyBody;
+import cn.pany.walle.remoting.protocol.OutboundStream;
+import cn.pany.walle.remoting.protocol.StreamFrame;
+import cn.pany.walle.remoting.protocol.WalleBatch;
 import cn.pany.walle.remoting.protocol.WalleBizRequest;
 import cn.pany.walle.remoting.protocol.WalleBizResponse;
 import cn.pany.walle.remoting.protocol.WalleMessage;
@@ -28,6 +33,7 @@ import org.springframework.beans.BeansException;
 import org.springframework.cglib.reflect.FastClass;
 import org.springframework.cglib.reflect.FastMethod;
 
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -52,15 +58,34 @@ public class WalleClientHandler extends SimpleChannelInboundHandler<WalleMessage
                 case SERVICE_REQ:
 //                    processRequestCommand(ctx, cmd);
                     LOG.info("biz message:" + msg.toString());
-
+                    LazyBody.release(cmd);
                     break;
                 case SERVICE_RESP:
                     if (cmd.getBody() != null) {
-                        WalleBizResponse walleBizResponse = (WalleBizResponse) cmd.getBody();
-                        WalleClient.received(walleBizResponse.getRequestId(), walleBizResponse);
+                        received(ctx, cmd.getHeader().getSessionID(), cmd);
 //                    processResponseCommand(ctx, cmd);
                     }
                     break;
+                case BATCH_RESP:
+                    for (WalleMessage entry : ((WalleBatch) cmd.getBody()).getMessages()) {
+                        received(ctx, entry.getHeader().getSessionID(), entry);
+                    }
+                    break;
+                case STREAM_NEXT:
+                case STREAM_END:
+                    if (!InboundStream.received(ctx.channel(), cmd.getHeader().getSessionID(),
+                            cmd.getHeader().getType() == MessageType.STREAM_END, (StreamFrame) cmd.getBody())) {
+                        //调用方已经关掉了流
+                        LOG.debug("stream [{}] not open on channel [{}]", cmd.getHeader().getSessionID(), ctx.channel());
+                    }
+                    break;
+                //服务端对客户端上传的流控
+                case STREAM_CREDIT:
+                    OutboundStream.credit(ctx.channel(), cmd.getHeader().getSessionID(), ((StreamFrame) cmd.getBody()).getCredit());
+                    break;
+                case STREAM_CANCEL:
+                    OutboundStream.cancel(ctx.channel(), cmd.getHeader().getSessionID());
+                    break;
                 default:
                     break;
             }
@@ -68,6 +93,27 @@ public class WalleClientHandler extends SimpleChannelInboundHandler<WalleMessage
     }
 
 
+    /**
+     * Hand a response to its pending call. A body the decoder left lazy goes to the call as is, so a
+     * synchronous caller deserializes it in its own thread.
+     */
+    private void received(ChannelHandlerContext ctx, long requestId, WalleMessage response) throws IOException {
+        PendingCallTable table = ctx.channel().attr(PendingCallTable.KEY).get();
+        WalleResponseFuture future = table == null ? null : table.remove(requestId);
+        if (future != null) {
+            if (response.getBody() instanceof LazyBody) {
+                future.received((LazyBody) response.getBody());
+            } else {
+                future.received((WalleBizResponse) response.getBody());
+            }
+        } else if (InboundStream.get(ctx.channel(), requestId) != null) {
+            InboundStream.responded(ctx.channel(), requestId, (WalleBizResponse) LazyBody.resolve(response));
+        } else {
+            LazyBody.release(response);
+            LOG.info("requestId :[{}] not in pendingCallTable,channel:[{}]", requestId, ctx.channel());
+        }
+    }
+
     private WalleMessage buildBizResp() {
         WalleMessage message = new WalleMessage();
         Header header = new Header();
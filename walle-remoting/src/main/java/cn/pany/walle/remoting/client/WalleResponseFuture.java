@@ -0,0 +1,154 @@
+/*
+ * Copyright 2018-2019 Pany Young.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.pany.walle.remoting.client;
+
+import cn.pany.walle.remoting.exception.WalleRpcException;
+import cn.pany.walle.remoting.protocol.LazyBody;
+import cn.pany.walle.remoting.protocol.WalleBizResponse;
+import cn.pany.walle.remoting.task.TimeoutScheduler;
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A pending remote call, completed by {@link WalleClientHandler} when the response arrives,
+ * or failed by {@link TimeoutScheduler} when it expires first.
+ */
+public class WalleResponseFuture extends CompletableFuture<WalleBizResponse> implements TimerTask {
+
+    private final PendingCallTable table;
+    private final long requestId;
+    private volatile Timeout timeout;
+    //同步调用由调用方线程反序列化，IO 线程只把未解码的 body 放在这里
+    private volatile boolean decodeInCaller;
+    private volatile LazyBody lazyBody;
+    private volatile boolean abandoned;
+
+    public WalleResponseFuture(PendingCallTable table, long requestId) {
+        this.table = table;
+        this.requestId = requestId;
+    }
+
+    public long getRequestId() {
+        return requestId;
+    }
+
+    /**
+     * Start the timeout clock, call after the future is in the pending table.
+     */
+    public void scheduleTimeout(long timeoutMillis) {
+        this.timeout = TimeoutScheduler.newTimeout(this, timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Let the thread waiting in {@link #getResponse()} deserialize a lazily decoded response.
+     * Call before the request is written.
+     */
+    public void decodeInCaller() {
+        this.decodeInCaller = true;
+    }
+
+    public void received(WalleBizResponse response) {
+        cancelTimeout();
+        complete(response);
+    }
+
+    /**
+     * A response whose body is still serialized, deserialized here unless the caller does it.
+     */
+    public void received(LazyBody body) {
+        cancelTimeout();
+        if (decodeInCaller) {
+            lazyBody = body;
+            //调用方已经不等了
+            if (abandoned) {
+                body.release();
+            }
+            complete(null);
+            return;
+        }
+        try {
+            complete((WalleBizResponse) body.decode());
+        } catch (Exception e) {
+            completeExceptionally(new WalleRpcException(WalleRpcException.SERIALIZATION_EXCEPTION,
+                    "requestId [" + requestId + "] response can not be decoded", e));
+        }
+    }
+
+    /**
+     * Wait for the response, deserializing it in the calling thread when it arrived lazily.
+     */
+    public WalleBizResponse getResponse() throws InterruptedException, ExecutionException {
+        WalleBizResponse response;
+        try {
+            response = get();
+        } catch (InterruptedException e) {
+            abandon();
+            throw e;
+        }
+        LazyBody body = lazyBody;
+        if (response == null && body != null) {
+            try {
+                return (WalleBizResponse) body.decode();
+            } catch (IOException e) {
+                throw new ExecutionException(new WalleRpcException(WalleRpcException.SERIALIZATION_EXCEPTION,
+                        "requestId [" + requestId + "] response can not be decoded", e));
+            }
+        }
+        return response;
+    }
+
+    private void abandon() {
+        abandoned = true;
+        LazyBody body = lazyBody;
+        if (body != null) {
+            body.release();
+        }
+    }
+
+    public void failed(Throwable cause) {
+        cancelTimeout();
+        completeExceptionally(cause);
+    }
+
+    /**
+     * Stop waiting for the response, e.g. after the caller gave up.
+     *
+     * @return false if the call has already been completed or removed
+     */
+    public boolean removePending() {
+        return table.remove(requestId, this);
+    }
+
+    @Override
+    public void run(Timeout timeout) {
+        if (removePending()) {
+            completeExceptionally(new WalleRpcException(WalleRpcException.TIMEOUT_EXCEPTION,
+                    "requestId [" + requestId + "] is time out"));
+        }
+    }
+
+    private void cancelTimeout() {
+        Timeout t = timeout;
+        if (t != null) {
+            t.cancel();
+        }
+    }
+}
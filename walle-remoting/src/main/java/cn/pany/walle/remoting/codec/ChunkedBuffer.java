@@ -0,0 +1,90 @@
+/*
+ * Copyright 2018-2019 Pany Young.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.pany.walle.remoting.codec;
+
+import cn.pany.walle.remoting.exception.NettyCodeException;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
+
+/**
+ * Output buffer that grows by adding pooled pieces instead of reallocating and copying: pieces double
+ * from {@link #MIN_PIECE_SIZE} up to {@link FrameChunkEncoder#CHUNK_SIZE}, then stay at that size.
+ * A large message is never held in one contiguous buffer, and {@link FrameChunkEncoder} sends slices
+ * of the pieces. Growing past {@link FrameChunkEncoder#MAX_MESSAGE_LENGTH} fails, so an oversized
+ * message is rejected while it is serialized instead of after it.
+ */
+final class ChunkedBuffer extends CompositeByteBuf {
+
+    static final int MIN_PIECE_SIZE = 512;
+
+    ChunkedBuffer(ByteBufAllocator alloc) {
+        super(alloc, true, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public CompositeByteBuf capacity(int newCapacity) {
+        int capacity = capacity();
+        if (newCapacity <= capacity) {
+            return this;
+        }
+        if (newCapacity > FrameChunkEncoder.MAX_MESSAGE_LENGTH) {
+            if (capacity >= FrameChunkEncoder.MAX_MESSAGE_LENGTH) {
+                throw new NettyCodeException("message exceeds " + FrameChunkEncoder.MAX_MESSAGE_LENGTH + " bytes");
+            }
+            newCapacity = FrameChunkEncoder.MAX_MESSAGE_LENGTH;
+        }
+        while (capacity < newCapacity) {
+            int size = Math.min(Math.max(capacity, MIN_PIECE_SIZE), FrameChunkEncoder.CHUNK_SIZE);
+            ByteBuf piece = alloc().directBuffer(size);
+            piece.setIndex(0, size);
+            addComponent(false, piece);
+            capacity += size;
+        }
+        return this;
+    }
+
+    /**
+     * Release the pieces after the writer index, left over from growing ahead of the writes.
+     */
+    void trim() {
+        int last = numComponents() - 1;
+        while (last > 0 && toByteIndex(last) >= writerIndex()) {
+            removeComponent(last--);
+        }
+    }
+
+    /**
+     * {@code length} bytes at {@code index} of {@code buf} in one contiguous buffer: a slice of the piece
+     * they lie in, or a copy in {@code scratch} when they cross pieces. Snappy reads and writes byte by
+     * byte, which on a composite buffer looks up the piece for every byte.
+     */
+    static ByteBuf contiguous(ByteBuf buf, int index, int length, ByteBuf scratch) {
+        if (!(buf instanceof CompositeByteBuf)) {
+            return buf.slice(index, length);
+        }
+        CompositeByteBuf composite = (CompositeByteBuf) buf;
+        int c = composite.toComponentIndex(index);
+        int offset = index - composite.toByteIndex(c);
+        ByteBuf piece = composite.internalComponent(c);
+        if (offset + length <= piece.readableBytes()) {
+            return piece.slice(piece.readerIndex() + offset, length);
+        }
+        scratch.clear();
+        scratch.writeBytes(buf, index, length);
+        return scratch;
+    }
+}
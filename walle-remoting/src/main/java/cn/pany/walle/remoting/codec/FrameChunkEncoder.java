@@ -0,0 +1,86 @@
+/*
+ * Copyright 2018-2019 Pany Young.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.pany.walle.remoting.codec;
+
+import cn.pany.walle.remoting.exception.NettyCodeException;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToMessageEncoder;
+
+import java.util.List;
+
+/**
+ * Splits encoded frames larger than {@link #CHUNK_SIZE} into chunk frames, so big messages stay under
+ * the decoder's frame cap. {@link WalleMessageDecoder} joins the chunks back into one frame.
+ * <pre>
+ * int     magic 0xabef0301
+ * int     frame length
+ * byte    flags                    (FLAG_LAST on the final chunk)
+ * bytes   next piece of the original frame
+ * </pre>
+ * The chunks of a frame are written one after another, so they never interleave with other frames.
+ * Sits between the socket and {@link WalleMessageEncoder}, and passes frames through until login agreed on
+ * version {@link #VERSION}.
+ */
+public class FrameChunkEncoder extends MessageToMessageEncoder<ByteBuf> {
+
+    static final int VERSION = 3;
+    static final int MAGIC = 0xabef0301;
+    static final int HEADER_LENGTH = 9;
+    static final int FLAG_LAST = 0x01;
+
+    //每个分片的数据大小，远小于解码端 1M 的帧上限
+    static final int CHUNK_SIZE = 256 * 1024;
+    //拼回来的整帧上限
+    static final int MAX_MESSAGE_LENGTH = 64 * 1024 * 1024;
+
+    //登录协商后设置，只在 IO 线程里读写
+    private int version = 1;
+
+    /**
+     * Switch this connection to the given frame version, called on the IO thread once login agreed on it.
+     */
+    public void useVersion(int version) {
+        this.version = version;
+    }
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, ByteBuf msg, List<Object> out) throws Exception {
+        int length = msg.readableBytes();
+        if (version < VERSION || length <= CHUNK_SIZE) {
+            out.add(msg.retain());
+            return;
+        }
+        //对端拼不回来的消息不发，写失败直接回给调用方
+        if (length > MAX_MESSAGE_LENGTH) {
+            throw new NettyCodeException("message of " + length + " bytes exceeds " + MAX_MESSAGE_LENGTH + " bytes");
+        }
+        //分片头单独分配，数据直接切原来的 buffer，不拷贝
+        for (int offset = 0; offset < length; offset += CHUNK_SIZE) {
+            int size = Math.min(CHUNK_SIZE, length - offset);
+            ByteBuf header = ctx.alloc().buffer(HEADER_LENGTH);
+            header.writeInt(MAGIC);
+            header.writeInt(size + 1);
+            header.writeByte(offset + size == length ? FLAG_LAST : 0);
+            out.add(header);
+            out.add(msg.retainedSlice(msg.readerIndex() + offset, size));
+        }
+    }
+
+    static boolean isChunk(ByteBuf frame) {
+        return frame.getInt(frame.readerIndex()) == MAGIC;
+    }
+}
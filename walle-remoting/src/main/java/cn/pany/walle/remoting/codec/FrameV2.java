@@ -0,0 +1,125 @@
+/*
+ * Copyright 2018-2019 Pany Young.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.pany.walle.remoting.codec;
+
+import cn.pany.walle.remoting.exception.NettyCodeException;
+import io.netty.buffer.ByteBuf;
+import io.netty.util.CharsetUtil;
+
+/**
+ * Layout of the compact v2 frame, used on a connection once both ends agreed on it at login.
+ * <pre>
+ * int     magic 0xabef0201
+ * int     frame length
+ * byte    flags
+ * byte    message type
+ * varlong sessionID
+ * byte    priority                 (FLAG_PRIORITY)
+ * byte    serializer id            (FLAG_SERIALIZER, otherwise protostuff)
+ * varint  attachment count         (FLAG_ATTACHMENT)
+ *   ref     key
+ *   string  value
+ * ref     body class               (FLAG_BODY)
+ * bytes   body, up to the end of the frame; a batch keeps the v1 entry layout
+ * </pre>
+ * With {@code FLAG_COMPRESSED} the body bytes, batch entries included, are a varint uncompressed length
+ * followed by blocks of at most {@code COMPRESS_BLOCK_SIZE} input bytes, each a varint compressed length
+ * and a snappy block.
+ * A {@code ref} is a varint into a per-connection dictionary: {@code id << 1} for a known entry,
+ * {@code id << 1 | 1} followed by the string to define one, or 0 followed by a string that is not kept.
+ * Both ends add entries in frame order, so the dictionaries never need to be sent.
+ */
+final class FrameV2 {
+
+    static final int VERSION = 2;
+    static final int MAGIC = 0xabef0201;
+
+    static final int FLAG_ATTACHMENT = 0x01;
+    static final int FLAG_BODY = 0x02;
+    static final int FLAG_PRIORITY = 0x04;
+    static final int FLAG_SERIALIZER = 0x08;
+    static final int FLAG_COMPRESSED = 0x10;
+
+    //flags 在帧里的位置：magic、length 之后
+    static final int FLAGS_OFFSET = 8;
+    //解压后 body 的上限，防止小帧解出超大的 body
+    static final int MAX_UNCOMPRESSED_LENGTH = 32 * 1024 * 1024;
+    //netty 的 Snappy 哈希表存 short 偏移，输入超过 32K 会算错，所以分块压缩
+    static final int COMPRESS_BLOCK_SIZE = 32 * 1024;
+
+    //每个连接的字典上限，满了之后新字符串直接明文发送
+    static final int MAX_DICTIONARY_SIZE = 1024;
+
+    private FrameV2() {
+    }
+
+    static void writeVarInt(ByteBuf out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    static void writeVarLong(ByteBuf out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte(((int) value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static int readVarInt(ByteBuf in) throws NettyCodeException {
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = in.readByte();
+            result |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return result;
+            }
+        }
+        throw new NettyCodeException("malformed varint");
+    }
+
+    static long readVarLong(ByteBuf in) throws NettyCodeException {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            result |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return result;
+            }
+        }
+        throw new NettyCodeException("malformed varlong");
+    }
+
+    static void writeString(ByteBuf out, String value) {
+        byte[] bytes = value.getBytes(CharsetUtil.UTF_8);
+        writeVarInt(out, bytes.length);
+        out.writeBytes(bytes);
+    }
+
+    static String readString(ByteBuf in) throws NettyCodeException {
+        int length = readVarInt(in);
+        String value = in.toString(in.readerIndex(), length, CharsetUtil.UTF_8);
+        in.skipBytes(length);
+        return value;
+    }
+
+    static boolean isV2(ByteBuf frame) {
+        return frame.getInt(frame.readerIndex()) == MAGIC;
+    }
+}
@@ -17,19 +17,31 @@ package cn.pany.walle.remoting.codec;
 
 import cn.pany.walle.common.protocol.MessageType;
 import cn.pany.walle.remoting.api.WalleInvoker;
+import cn.pany.walle.remoting.exception.NettyCodeException;
 import cn.pany.walle.remoting.protocol.Header;
+import cn.pany.walle.remoting.protocol.LazyBody;
+import cn.pany.walle.remoting.protocol.WalleBatch;
 import cn.pany.walle.remoting.protocol.WalleMessage;
+import cn.pany.walle.remoting.serialize.Serializer;
+import cn.pany.walle.remoting.serialize.SerializerFactory;
 import cn.pany.walle.remoting.utils.SerializationUtil;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.CompositeByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.handler.codec.compression.Snappy;
+import io.netty.util.CharsetUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author pany
@@ -40,13 +52,47 @@ public class WalleMessageDecoder extends LengthFieldBasedFrameDecoder {
     private static final Logger log = LoggerFactory.getLogger(WalleMessageDecoder.class);
 
     //	MarshallingDecoder marshallingDecoder ;
-    ProtostuffDecoder protostuffDecoder;
+    //附件的值固定用 protostuff，和老版本兼容
+    private final Serializer protostuff = SerializerFactory.get(SerializerFactory.PROTOSTUFF);
+
+    //类名到 Class 的缓存，所有连接共用
+    private static final Map<String, Class<?>> CLASSES = new ConcurrentHashMap<>();
+
+    //v2 帧的字典，下标就是 id，0 不用；和对端编码器按同样的帧顺序增长
+    private final List<String> keys = new ArrayList<>(Collections.singletonList(null));
+    private final List<Class<?>> classes = new ArrayList<>(Collections.singletonList(null));
+    private final Snappy snappy = new Snappy();
+    //正在拼接的分片帧，分片直接挂上去不拷贝
+    private CompositeByteBuf chunks;
+    //超长的分片消息已经丢掉，它剩下的分片也丢到最后一片为止
+    private boolean discardingChunks;
+    //为 true 时请求和响应的 body 留给处理线程反序列化
+    private final boolean lazyBodies;
+    //登录时双方商定的序列化方式，按位表示；之前和不登录的老客户端只能用默认的
+    private int serializers;
 
     public WalleMessageDecoder(int maxFrameLength, int lengthFieldOffset,
                                int lengthFieldLength) throws IOException {
+        this(maxFrameLength, lengthFieldOffset, lengthFieldLength, false);
+    }
+
+    /**
+     * @param lazyBodies keep the bodies of requests and responses as {@link LazyBody}, so they are
+     *                   deserialized by the thread that handles them instead of the IO thread
+     */
+    public WalleMessageDecoder(int maxFrameLength, int lengthFieldOffset,
+                               int lengthFieldLength, boolean lazyBodies) throws IOException {
         super(maxFrameLength, lengthFieldOffset, lengthFieldLength);
 //		this.marshallingDecoder = new MarshallingDecoder();
-        this.protostuffDecoder = new ProtostuffDecoder();
+        this.lazyBodies = lazyBodies;
+    }
+
+    /**
+     * Accept bodies of the serializer ids in the mask, called on the IO thread once login agreed on them.
+     * Other ids than the default one fail the frame.
+     */
+    public void useSerializers(int serializers) {
+        this.serializers = serializers;
     }
 
     @Override
@@ -54,6 +100,20 @@ public class WalleMessageDecoder extends LengthFieldBasedFrameDecoder {
             throws Exception {
         ByteBuf frame = (ByteBuf) super.decode(ctx, in);
         if (frame == null) return null;
+        if (FrameChunkEncoder.isChunk(frame)) {
+            frame = addChunk(ctx, frame);
+            if (frame == null) return null;
+        }
+        if (FrameV2.isV2(frame)) {
+            try {
+                return decodeV2(ctx, frame);
+            } catch (Exception e) {
+                log.error("decode v2 frame error", e);
+                throw e;
+            } finally {
+                frame.release();
+            }
+        }
 
         WalleMessage message = new WalleMessage();
         Header header = new Header();
@@ -68,13 +128,11 @@ public class WalleMessageDecoder extends LengthFieldBasedFrameDecoder {
             if (size > 0) {
                 Map<String, String> attch = new HashMap<String, String>(size);
                 int keySize = 0;
-                byte[] keyArray = null;
                 String key = null;
                 for (int i = 0; i < size; i++) {
                     keySize = frame.readInt();
-                    keyArray = new byte[keySize];
-                    frame.readBytes(keyArray);
-                    key = new String(keyArray, "UTF-8");
+                    key = frame.toString(frame.readerIndex(), keySize, CharsetUtil.UTF_8);
+                    frame.skipBytes(keySize);
 //				attch.put(key, marshallingDecoder.decode(frame));
 
 //                    frame.markReaderIndex();
@@ -90,20 +148,25 @@ public class WalleMessageDecoder extends LengthFieldBasedFrameDecoder {
 //                    frame.readBytes(data);
 
 //                    String value = SerializationUtil.deserialize(data, String.class);
-                    String value = (String) protostuffDecoder.decode(frame, String.class);
+                    String value = (String) decodeObject(protostuff, frame, String.class);
                     attch.put(key, value);
                 }
-                keyArray = null;
                 key = null;
                 header.setAttachment(attch);
+                String serializer = attch.get("serializer");
+                if (serializer != null) {
+                    header.setSerializer(Byte.parseByte(serializer));
+                }
             }
 
-            if (frame.readableBytes() > 4) {
+            if (header.getType() == MessageType.BATCH_REQ || header.getType() == MessageType.BATCH_RESP) {
+                message.setBody(decodeBatch(header, frame));
+            } else if (frame.readableBytes() > 4) {
 //		    message.setBody(marshallingDecoder.decode(frame));
                 String bodyClass = (String) header.getAttachment().get("bodyClass");
-                Class<?> classtype = Class.forName(bodyClass);//获得Clss对象
+                Class<?> classtype = loadClass(bodyClass);//获得Clss对象
 
-                Object messageBody = protostuffDecoder.decode(frame, classtype);
+                Object messageBody = readBody(serializerOf(header), frame, classtype, isLazy(header.getType()));
 
                 message.setBody(messageBody);
             }
@@ -122,4 +185,278 @@ public class WalleMessageDecoder extends LengthFieldBasedFrameDecoder {
         return message;
     }
 
+    /**
+     * Append a chunk to the frame being joined, the whole frame once its last chunk arrived.
+     * A message over {@link FrameChunkEncoder#MAX_MESSAGE_LENGTH} fails once and the rest of its
+     * chunks are dropped, the next message decodes as usual.
+     */
+    private ByteBuf addChunk(ChannelHandlerContext ctx, ByteBuf chunk) throws NettyCodeException {
+        chunk.skipBytes(8);
+        boolean last = (chunk.readByte() & FrameChunkEncoder.FLAG_LAST) != 0;
+        if (discardingChunks) {
+            chunk.release();
+            discardingChunks = !last;
+            return null;
+        }
+        if (chunks == null) {
+            chunks = ctx.alloc().compositeBuffer(Integer.MAX_VALUE);
+        }
+        if (chunks.readableBytes() + chunk.readableBytes() > FrameChunkEncoder.MAX_MESSAGE_LENGTH) {
+            chunk.release();
+            releaseChunks();
+            discardingChunks = !last;
+            throw new NettyCodeException("chunked frame exceeds " + FrameChunkEncoder.MAX_MESSAGE_LENGTH + " bytes");
+        }
+        chunks.addComponent(true, chunk);
+        if (!last) {
+            return null;
+        }
+        ByteBuf frame = chunks;
+        chunks = null;
+        return frame;
+    }
+
+    private void releaseChunks() {
+        if (chunks != null) {
+            chunks.release();
+            chunks = null;
+        }
+    }
+
+    @Override
+    protected void handlerRemoved0(ChannelHandlerContext ctx) throws Exception {
+        releaseChunks();
+        super.handlerRemoved0(ctx);
+    }
+
+    /**
+     * Split a batch frame back into one message per entry, each with its own sessionID.
+     */
+    private WalleBatch decodeBatch(Header header, ByteBuf frame) throws Exception {
+        String bodyClass = header.getAttachment().get("bodyClass");
+        Class<?> classtype = loadClass(bodyClass);
+        MessageType entryType = WalleBatch.entryType(header.getType());
+        Serializer serializer = serializerOf(header);
+        boolean lazy = isLazy(entryType);
+        int count = frame.readInt();
+        List<WalleMessage> messages = new ArrayList<>(count);
+        try {
+            for (int i = 0; i < count; i++) {
+                Header entryHeader = new Header();
+                entryHeader.setType(entryType);
+                entryHeader.setSessionID(frame.readLong());
+                entryHeader.setPriority(header.getPriority());
+                entryHeader.getAttachment().put("bodyClass", bodyClass);
+                entryHeader.setSerializer(header.getSerializer());
+                WalleMessage entry = new WalleMessage();
+                entry.setHeader(entryHeader);
+                entry.setBody(readBody(serializer, frame, classtype, lazy));
+                messages.add(entry);
+            }
+        } catch (Exception e) {
+            messages.forEach(LazyBody::release);
+            throw e;
+        }
+        return new WalleBatch(messages);
+    }
+
+    private WalleMessage decodeV2(ChannelHandlerContext ctx, ByteBuf frame) throws Exception {
+        Header header = new Header();
+        header.setCrcCode(frame.readInt());
+        header.setLength(frame.readInt());
+        int flags = frame.readUnsignedByte();
+        header.setType(MessageType.getByValue(frame.readByte()));
+        header.setSessionID(FrameV2.readVarLong(frame));
+        if ((flags & FrameV2.FLAG_PRIORITY) != 0) {
+            header.setPriority(frame.readByte());
+        }
+        if ((flags & FrameV2.FLAG_SERIALIZER) != 0) {
+            header.setSerializer(frame.readByte());
+        }
+        if ((flags & FrameV2.FLAG_ATTACHMENT) != 0) {
+            int size = FrameV2.readVarInt(frame);
+            Map<String, String> attch = new HashMap<String, String>(size);
+            for (int i = 0; i < size; i++) {
+                String key = readKey(frame);
+                attch.put(key, FrameV2.readString(frame));
+            }
+            header.setAttachment(attch);
+        }
+        WalleMessage message = new WalleMessage();
+        message.setHeader(header);
+        if ((flags & FrameV2.FLAG_BODY) != 0) {
+            Class<?> classtype = readClass(frame);
+            ByteBuf body = (flags & FrameV2.FLAG_COMPRESSED) != 0 ? decompress(ctx, frame) : frame;
+            try {
+                if (header.getType() == MessageType.BATCH_REQ || header.getType() == MessageType.BATCH_RESP) {
+                    message.setBody(decodeBatchV2(header, classtype, body));
+                } else if (isLazy(header.getType())) {
+                    //解压出来的 body 也一样切片，release 之后由切片持有
+                    message.setBody(new LazyBody(body.retainedSlice(), serializerOf(header), classtype));
+                } else {
+                    message.setBody(serializerOf(header).deserialize(body, body.readableBytes(), classtype));
+                }
+            } finally {
+                if (body != frame) {
+                    body.release();
+                }
+            }
+        }
+        return message;
+    }
+
+    /**
+     * Inflate the snappy blocks left in the frame into pooled pieces of at most
+     * {@link FrameChunkEncoder#CHUNK_SIZE}, joined without copying when there is more than one.
+     */
+    private ByteBuf decompress(ChannelHandlerContext ctx, ByteBuf frame) throws Exception {
+        int length = FrameV2.readVarInt(frame);
+        if (length < 0 || length > FrameV2.MAX_UNCOMPRESSED_LENGTH) {
+            throw new NettyCodeException("uncompressed body length " + length + " exceeds " + FrameV2.MAX_UNCOMPRESSED_LENGTH);
+        }
+        CompositeByteBuf body = ctx.alloc().compositeBuffer(Integer.MAX_VALUE);
+        ByteBuf piece = ctx.alloc().buffer(Math.min(length, FrameChunkEncoder.CHUNK_SIZE));
+        //分片拼回的帧里跨片的压缩块先拷到这里
+        ByteBuf input = ctx.alloc().buffer(FrameV2.COMPRESS_BLOCK_SIZE);
+        try {
+            while (frame.isReadable()) {
+                int blockLength = FrameV2.readVarInt(frame);
+                //块不跨片解压，snappy 的回溯拷贝都在一片连续内存里
+                int decoded = body.readableBytes() + piece.readableBytes();
+                if (piece.writableBytes() < Math.min(FrameV2.COMPRESS_BLOCK_SIZE, length - decoded) && piece.isReadable()) {
+                    body.addComponent(true, piece);
+                    piece = ctx.alloc().buffer(Math.min(length - decoded, FrameChunkEncoder.CHUNK_SIZE));
+                }
+                snappy.decode(ChunkedBuffer.contiguous(frame, frame.readerIndex(), blockLength, input), piece);
+                frame.skipBytes(blockLength);
+                snappy.reset();
+            }
+            if (body.readableBytes() + piece.readableBytes() != length) {
+                throw new NettyCodeException("uncompressed body length " + (body.readableBytes() + piece.readableBytes()) + " but expect " + length);
+            }
+        } catch (Exception e) {
+            piece.release();
+            body.release();
+            snappy.reset();
+            throw e;
+        } finally {
+            input.release();
+        }
+        if (body.numComponents() == 0) {
+            body.release();
+            return piece;
+        }
+        body.addComponent(true, piece);
+        return body;
+    }
+
+    private WalleBatch decodeBatchV2(Header header, Class<?> classtype, ByteBuf frame) throws Exception {
+        MessageType entryType = WalleBatch.entryType(header.getType());
+        Serializer serializer = serializerOf(header);
+        boolean lazy = isLazy(entryType);
+        int count = frame.readInt();
+        List<WalleMessage> messages = new ArrayList<>(count);
+        try {
+            for (int i = 0; i < count; i++) {
+                Header entryHeader = new Header();
+                entryHeader.setType(entryType);
+                entryHeader.setSessionID(FrameV2.readVarLong(frame));
+                entryHeader.setPriority(header.getPriority());
+                entryHeader.setSerializer(header.getSerializer());
+                WalleMessage entry = new WalleMessage();
+                entry.setHeader(entryHeader);
+                entry.setBody(readBody(serializer, frame, classtype, lazy));
+                messages.add(entry);
+            }
+        } catch (Exception e) {
+            messages.forEach(LazyBody::release);
+            throw e;
+        }
+        return new WalleBatch(messages);
+    }
+
+    private String readKey(ByteBuf frame) throws Exception {
+        int ref = FrameV2.readVarInt(frame);
+        if ((ref & 1) == 0 && ref != 0) {
+            return keys.get(ref >>> 1);
+        }
+        String key = FrameV2.readString(frame);
+        if (ref != 0) {
+            define(keys, ref >>> 1, key);
+        }
+        return key;
+    }
+
+    private Class<?> readClass(ByteBuf frame) throws Exception {
+        int ref = FrameV2.readVarInt(frame);
+        if ((ref & 1) == 0 && ref != 0) {
+            return classes.get(ref >>> 1);
+        }
+        Class<?> classtype = loadClass(FrameV2.readString(frame));
+        if (ref != 0) {
+            define(classes, ref >>> 1, classtype);
+        }
+        return classtype;
+    }
+
+    private static <T> void define(List<T> dictionary, int id, T value) throws NettyCodeException {
+        if (id != dictionary.size()) {
+            throw new NettyCodeException("v2 dictionary out of sync, expect id " + dictionary.size() + " but was " + id);
+        }
+        dictionary.add(value);
+    }
+
+    private Serializer serializerOf(Header header) throws NettyCodeException {
+        //对端只能用商定过的，没有配置过的序列化方式不能拿来解任意的类
+        if (!SerializerFactory.isSupported(serializers | 1 << SerializerFactory.PROTOSTUFF, header.getSerializer())) {
+            throw new NettyCodeException("serializer id " + header.getSerializer() + " is not agreed on this connection");
+        }
+        Serializer serializer = SerializerFactory.get(header.getSerializer());
+        if (serializer == null) {
+            throw new NettyCodeException("unknown serializer id " + header.getSerializer());
+        }
+        return serializer;
+    }
+
+    //只有请求和响应的 body 可以延后解，登录、心跳和流的消息在 IO 线程里就要用
+    private boolean isLazy(MessageType type) {
+        return lazyBodies && (type == MessageType.SERVICE_REQ || type == MessageType.ONE_WAY
+                || type == MessageType.SERVICE_RESP);
+    }
+
+    /**
+     * A length prefixed object, deserialized now or kept as a retained slice when {@code lazy}.
+     */
+    private static Object readBody(Serializer serializer, ByteBuf in, Class<?> classtype, boolean lazy) throws Exception {
+        if (!lazy) {
+            return decodeObject(serializer, in, classtype);
+        }
+        int objectSize = in.readInt();
+        if (objectSize < 0 || in.readableBytes() < objectSize) {
+            throw new NettyCodeException("objectSize " + objectSize + " but readableBytes " + in.readableBytes());
+        }
+        ByteBuf bytes = in.retainedSlice(in.readerIndex(), objectSize);
+        in.skipBytes(objectSize);
+        return new LazyBody(bytes, serializer, classtype);
+    }
+
+    private static Object decodeObject(Serializer serializer, ByteBuf in, Class<?> classtype) throws Exception {
+        int objectSize = in.readInt();
+        if (objectSize < 0) {
+            throw new NettyCodeException("objectSize is 0");
+        }
+        if (in.readableBytes() < objectSize) {
+            throw new NettyCodeException("readableBytes less than objectSize");
+        }
+        return serializer.deserialize(in, objectSize, classtype);
+    }
+
+    private static Class<?> loadClass(String name) throws ClassNotFoundException {
+        Class<?> classtype = CLASSES.get(name);
+        if (classtype == null) {
+            classtype = Class.forName(name);
+            CLASSES.put(name, classtype);
+        }
+        return classtype;
+    }
 }
@@ -15,13 +15,21 @@
  */
 package cn.pany.walle.remoting.codec;
 
+import cn.pany.walle.remoting.exception.NettyCodeException;
+import cn.pany.walle.remoting.protocol.Header;
+import cn.pany.walle.remoting.protocol.WalleBatch;
 import cn.pany.walle.remoting.protocol.WalleMessage;
+import cn.pany.walle.remoting.serialize.Serializer;
+import cn.pany.walle.remoting.serialize.SerializerFactory;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.MessageToByteEncoder;
+import io.netty.handler.codec.compression.Snappy;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -32,12 +40,60 @@ import java.util.Map;
 @Slf4j
 public class WalleMessageEncoder extends MessageToByteEncoder<WalleMessage> {
     //	private MarshallingEncoder marshallingEncoder;
-    private ProtostuffEncoder protostuffEncoder;
-    private static final byte[] LENGTH_PLACEHOLDER = new byte[4];
+    //附件的值固定用 protostuff，和老版本兼容
+    private final Serializer protostuff = SerializerFactory.get(SerializerFactory.PROTOSTUFF);
 
     public WalleMessageEncoder() throws IOException {
 //		marshallingEncoder = new MarshallingEncoder();
-        protostuffEncoder = new ProtostuffEncoder();
+    }
+
+    //批量帧加上下一条会超过这个大小就另起一帧，不超过解码端的 maxFrameLength
+    private static final int MAX_BATCH_FRAME_LENGTH = 512 * 1024;
+
+    /**
+     * Highest frame version this side can encode and decode.
+     */
+    public static final int LATEST_VERSION = FrameChunkEncoder.VERSION;
+
+    /**
+     * Compression codecs this side can decode, as a bit mask sent at login.
+     */
+    public static final int COMPRESSION_SNAPPY = 1;
+
+    //登录协商后切到 v2，下面的字典只在 IO 线程里读写
+    private int version = 1;
+    private final Map<String, Integer> keyIds = new HashMap<>();
+    private final Map<Class<?>, Integer> classIds = new HashMap<>();
+    //body 达到这个字节数才压缩，0 表示不压缩；只用于 v2 帧
+    private int compressThreshold;
+    private final Snappy snappy = new Snappy();
+
+    /**
+     * Switch this connection to the given frame version, called on the IO thread once login agreed on it.
+     */
+    public void useVersion(int version) {
+        this.version = version;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Compress v2 bodies of at least the given size, called on the IO thread once login
+     * showed the peer can decode snappy. 0 turns compression off.
+     */
+    public void useCompression(int compressThreshold) {
+        this.compressThreshold = compressThreshold;
+    }
+
+    @Override
+    protected ByteBuf allocateBuffer(ChannelHandlerContext ctx, WalleMessage msg, boolean preferDirect) throws Exception {
+        //会分片发送的连接按块分配，大消息不用一整块连续内存，扩容也不拷贝
+        if (version >= FrameChunkEncoder.VERSION) {
+            return new ChunkedBuffer(ctx.alloc());
+        }
+        return super.allocateBuffer(ctx, msg, preferDirect);
     }
 
     @Override
@@ -46,45 +102,291 @@ public class WalleMessageEncoder extends MessageToByteEncoder<WalleMessage> {
         if (msg == null || msg.getHeader() == null) {
             throw new Exception("The encode message is null");
         }
+        if (version >= FrameV2.VERSION) {
+            int keys = keyIds.size();
+            int classes = classIds.size();
+            try {
+                encodeV2(ctx, msg, out);
+            } catch (Exception e) {
+                //帧没有发出去，本帧新加的字典项对端也不会有
+                keyIds.values().removeIf(id -> id > keys);
+                classIds.values().removeIf(id -> id > classes);
+                throw e;
+            }
+            if (out instanceof ChunkedBuffer) {
+                ((ChunkedBuffer) out).trim();
+            }
+            return;
+        }
+        Serializer serializer = serializerOf(msg.getHeader());
+        if (msg.getBody() instanceof WalleBatch) {
+            encodeBatch(msg.getHeader(), serializer, (WalleBatch) msg.getBody(), out);
+            return;
+        }
         if (msg.getBody() != null) {
             String msgBodyClass = msg.getBody().getClass().getName();
             msg.getHeader().getAttachment().put("bodyClass", msgBodyClass);
         }
 
-        out.writeInt(msg.getHeader().getCrcCode());
-        out.writeInt(msg.getHeader().getLength());
-        out.writeLong(msg.getHeader().getSessionID());
-        out.writeByte(msg.getHeader().getType().value());
-        out.writeByte(msg.getHeader().getPriority());
-        out.writeInt((msg.getHeader().getAttachment().size()));
-        String key = null;
-        byte[] keyArray = null;
-        Object value = null;
-        for (Map.Entry<String, String> param : msg.getHeader().getAttachment().entrySet()) {
-            key = param.getKey();
-            keyArray = key.getBytes("UTF-8");
-            out.writeInt(keyArray.length);
-            out.writeBytes(keyArray);
-            value = param.getValue();
-//			marshallingEncoder.encode(value, out);
-
-            //用protostuff序列化
-            protostuffEncoder.encode(value,out);
-        }
-        key = null;
-        keyArray = null;
-        value = null;
+        int frameStart = out.writerIndex();
+        encodeHeader(msg.getHeader(), out);
         if (msg.getBody() != null) {
 //			marshallingEncoder.encode(msg.getBody(), out);
 
-            //用protostuff序列化
-            protostuffEncoder.encode(msg.getBody(),out);
+            encodeObject(serializer, msg.getBody(), out);
         } else {
             out.writeInt(0);
         }
-        out.setInt(4, out.readableBytes() - 8);
+        out.setInt(frameStart + 4, out.writerIndex() - frameStart - 8);
+
+    }
+
+    /**
+     * One or more frames of: header, entry count, then sessionID and body of each entry.
+     */
+    private void encodeBatch(Header header, Serializer serializer, WalleBatch batch, ByteBuf out) throws Exception {
+        List<WalleMessage> messages = batch.getMessages();
+        int i = 0;
+        while (i < messages.size()) {
+            int frameStart = out.writerIndex();
+            header.getAttachment().put("bodyClass", messages.get(i).getBody().getClass().getName());
+            encodeHeader(header, out);
+            int countIndex = out.writerIndex();
+            out.writeInt(0);
+            int count = 0;
+            while (i < messages.size()) {
+                WalleMessage message = messages.get(i);
+                int entryStart = out.writerIndex();
+                out.writeLong(message.getHeader().getSessionID());
+                encodeObject(serializer, message.getBody(), out);
+                //加上这一条就超过上限时退回去，留给下一帧；单独一条超过的照样发
+                if (count > 0 && out.writerIndex() - frameStart > MAX_BATCH_FRAME_LENGTH) {
+                    out.writerIndex(entryStart);
+                    break;
+                }
+                i++;
+                count++;
+            }
+            out.setInt(countIndex, count);
+            out.setInt(frameStart + 4, out.writerIndex() - frameStart - 8);
+        }
+    }
+
+    private void encodeHeader(Header header, ByteBuf out) throws Exception {
+        out.writeInt(header.getCrcCode());
+        out.writeInt(header.getLength());
+        out.writeLong(header.getSessionID());
+        out.writeByte(header.getType().value());
+        out.writeByte(header.getPriority());
+        Map<String, String> attachment = header.getAttachment();
+        //v1 帧靠附件带序列化方式，只写到帧里，不改调用方的 header
+        String serializer = header.getSerializer() != SerializerFactory.DEFAULT ? String.valueOf(header.getSerializer()) : null;
+        boolean appendSerializer = serializer != null && !attachment.containsKey("serializer");
+        out.writeInt(attachment.size() + (appendSerializer ? 1 : 0));
+        for (Map.Entry<String, String> param : attachment.entrySet()) {
+            String value = serializer != null && "serializer".equals(param.getKey()) ? serializer : param.getValue();
+            encodeAttachment(param.getKey(), value, out);
+        }
+        if (appendSerializer) {
+            encodeAttachment("serializer", serializer, out);
+        }
+    }
+
+    private void encodeAttachment(String key, String value, ByteBuf out) throws Exception {
+        byte[] keyArray = key.getBytes("UTF-8");
+        out.writeInt(keyArray.length);
+        out.writeBytes(keyArray);
+//			marshallingEncoder.encode(value, out);
+
+        //用protostuff序列化
+        encodeObject(protostuff, value, out);
+    }
+
+    private void encodeV2(ChannelHandlerContext ctx, WalleMessage msg, ByteBuf out) throws Exception {
+        Header header = msg.getHeader();
+        Object body = msg.getBody();
+        Map<String, String> attachment = header.getAttachment();
+        int flags = 0;
+        if (attachment != null && !attachment.isEmpty()) {
+            flags |= FrameV2.FLAG_ATTACHMENT;
+        }
+        if (body != null) {
+            flags |= FrameV2.FLAG_BODY;
+        }
+        if (header.getPriority() != 0) {
+            flags |= FrameV2.FLAG_PRIORITY;
+        }
+        if (header.getSerializer() != SerializerFactory.DEFAULT && header.getSerializer() != SerializerFactory.PROTOSTUFF) {
+            flags |= FrameV2.FLAG_SERIALIZER;
+        }
+        Serializer serializer = serializerOf(header);
+        if (body instanceof WalleBatch) {
+            encodeBatchV2(ctx, header, flags, serializer, (WalleBatch) body, out);
+            return;
+        }
+        int frameStart = out.writerIndex();
+        encodeHeaderV2(header, flags, out);
+        if (body != null) {
+            writeClass(body.getClass(), out);
+            int bodyStart = out.writerIndex();
+            encodeBody(serializer, body, out);
+            compress(ctx, out, frameStart, bodyStart);
+        }
+        out.setInt(frameStart + 4, out.writerIndex() - frameStart - 8);
+    }
+
+    /**
+     * Same entries as the v1 batch: count, then sessionID and length prefixed body of each,
+     * the sessionIDs as varints.
+     */
+    private void encodeBatchV2(ChannelHandlerContext ctx, Header header, int flags, Serializer serializer,
+                               WalleBatch batch, ByteBuf out) throws Exception {
+        List<WalleMessage> messages = batch.getMessages();
+        int i = 0;
+        while (i < messages.size()) {
+            int frameStart = out.writerIndex();
+            encodeHeaderV2(header, flags, out);
+            writeClass(messages.get(i).getBody().getClass(), out);
+            int bodyStart = out.writerIndex();
+            int countIndex = out.writerIndex();
+            out.writeInt(0);
+            int count = 0;
+            while (i < messages.size()) {
+                WalleMessage message = messages.get(i);
+                int entryStart = out.writerIndex();
+                FrameV2.writeVarLong(out, message.getHeader().getSessionID());
+                int lengthPos = out.writerIndex();
+                out.writeInt(0);
+                encodeBody(serializer, message.getBody(), out);
+                out.setInt(lengthPos, out.writerIndex() - lengthPos - 4);
+                if (count > 0 && out.writerIndex() - frameStart > MAX_BATCH_FRAME_LENGTH) {
+                    out.writerIndex(entryStart);
+                    break;
+                }
+                i++;
+                count++;
+            }
+            out.setInt(countIndex, count);
+            compress(ctx, out, frameStart, bodyStart);
+            out.setInt(frameStart + 4, out.writerIndex() - frameStart - 8);
+        }
+    }
 
+    private void encodeHeaderV2(Header header, int flags, ByteBuf out) {
+        out.writeInt(FrameV2.MAGIC);
+        out.writeInt(0);
+        out.writeByte(flags);
+        out.writeByte(header.getType().value());
+        FrameV2.writeVarLong(out, header.getSessionID());
+        if ((flags & FrameV2.FLAG_PRIORITY) != 0) {
+            out.writeByte(header.getPriority());
+        }
+        if ((flags & FrameV2.FLAG_SERIALIZER) != 0) {
+            out.writeByte(header.getSerializer());
+        }
+        if ((flags & FrameV2.FLAG_ATTACHMENT) != 0) {
+            FrameV2.writeVarInt(out, header.getAttachment().size());
+            for (Map.Entry<String, String> param : header.getAttachment().entrySet()) {
+                writeRef(keyIds, param.getKey(), param.getKey(), out);
+                FrameV2.writeString(out, param.getValue() == null ? "" : param.getValue());
+            }
+        }
     }
 
+    /**
+     * Replace the body written from {@code bodyStart} with its snappy blocks when it reaches the threshold,
+     * a body that does not get smaller is left as it is.
+     */
+    private void compress(ChannelHandlerContext ctx, ByteBuf out, int frameStart, int bodyStart) {
+        int length = out.writerIndex() - bodyStart;
+        //解压上限之外的 body 原样发，对端才解得开
+        if (compressThreshold <= 0 || length < compressThreshold || length > FrameV2.MAX_UNCOMPRESSED_LENGTH) {
+            return;
+        }
+        ByteBuf compressed = out instanceof ChunkedBuffer ? new ChunkedBuffer(ctx.alloc()) : ctx.alloc().buffer(length);
+        //每块在连续的暂存区里压缩，再整块追加到可能分片的输出上
+        ByteBuf input = ctx.alloc().buffer(FrameV2.COMPRESS_BLOCK_SIZE);
+        ByteBuf block = ctx.alloc().buffer(FrameV2.COMPRESS_BLOCK_SIZE + FrameV2.COMPRESS_BLOCK_SIZE / 6 + 32);
+        try {
+            FrameV2.writeVarInt(compressed, length);
+            for (int offset = 0; offset < length; offset += FrameV2.COMPRESS_BLOCK_SIZE) {
+                int size = Math.min(FrameV2.COMPRESS_BLOCK_SIZE, length - offset);
+                block.clear();
+                snappy.encode(ChunkedBuffer.contiguous(out, bodyStart + offset, size, input), block, size);
+                //块长度固定写成 3 个字节的 varint
+                int blockLength = block.readableBytes();
+                compressed.writeByte(blockLength & 0x7F | 0x80);
+                compressed.writeByte(blockLength >>> 7 & 0x7F | 0x80);
+                compressed.writeByte(blockLength >>> 14);
+                compressed.writeBytes(block);
+            }
+            if (compressed.readableBytes() < length) {
+                out.writerIndex(bodyStart);
+                out.writeBytes(compressed);
+                out.setByte(frameStart + FrameV2.FLAGS_OFFSET, out.getByte(frameStart + FrameV2.FLAGS_OFFSET) | FrameV2.FLAG_COMPRESSED);
+            }
+        } finally {
+            compressed.release();
+            input.release();
+            block.release();
+        }
+    }
+
+    private static Serializer serializerOf(Header header) throws NettyCodeException {
+        Serializer serializer = SerializerFactory.get(header.getSerializer());
+        if (serializer == null) {
+            throw new NettyCodeException("unknown serializer id " + header.getSerializer());
+        }
+        return serializer;
+    }
+
+    /**
+     * Length prefixed object of a v1 frame, nothing is left behind when serialization fails.
+     */
+    private static void encodeObject(Serializer serializer, Object obj, ByteBuf out) {
+        int lengthPos = out.writerIndex();
+        out.writeInt(0);
+        try {
+            encodeBody(serializer, obj, out);
+            out.setInt(lengthPos, out.writerIndex() - lengthPos - 4);
+        } catch (NettyCodeException e) {
+            //v1 帧和以前一样，序列化失败只打日志
+            out.writerIndex(lengthPos);
+            log.error(e.getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * Serialize into {@code out}, v2 frames let the failure fail the write instead of sending an empty body.
+     */
+    private static void encodeBody(Serializer serializer, Object obj, ByteBuf out) throws NettyCodeException {
+        int start = out.writerIndex();
+        try {
+            serializer.serialize(obj, out);
+        } catch (Exception e) {
+            //不留下半个对象
+            out.writerIndex(start);
+            throw new NettyCodeException("serialize " + obj.getClass().getName() + " with " + serializer.getName() + " error", e);
+        }
+    }
+
+    private void writeClass(Class<?> clazz, ByteBuf out) {
+        writeRef(classIds, clazz, clazz.getName(), out);
+    }
 
+    private static <K> void writeRef(Map<K, Integer> ids, K key, String value, ByteBuf out) {
+        Integer id = ids.get(key);
+        if (id != null) {
+            FrameV2.writeVarInt(out, id << 1);
+            return;
+        }
+        if (ids.size() < FrameV2.MAX_DICTIONARY_SIZE) {
+            id = ids.size() + 1;
+            ids.put(key, id);
+            FrameV2.writeVarInt(out, id << 1 | 1);
+        } else {
+            FrameV2.writeVarInt(out, 0);
+        }
+        FrameV2.writeString(out, value);
+    }
 }
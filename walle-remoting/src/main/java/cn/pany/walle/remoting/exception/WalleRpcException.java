@@ -25,6 +25,8 @@ public final class WalleRpcException extends RuntimeException {
     public static final int FORBIDDEN_EXCEPTION = 4;
     public static final int SERIALIZATION_EXCEPTION = 5;
     public static final int NO_CLIENT_EXCEPTION = 6;
+    public static final int SERVER_BUSY_EXCEPTION = 7;
+    public static final int CANCELLED_EXCEPTION = 8;
 
     private int code; // RpcException不能有子类，异常类型用ErrorCode表示，以便保持兼容。
 
@@ -91,4 +93,12 @@ public final class WalleRpcException extends RuntimeException {
     public boolean isSerialization() {
         return code == SERIALIZATION_EXCEPTION;
     }
+
+    public boolean isServerBusy() {
+        return code == SERVER_BUSY_EXCEPTION;
+    }
+
+    public boolean isCancelled() {
+        return code == CANCELLED_EXCEPTION;
+    }
 }
\ No newline at end of file
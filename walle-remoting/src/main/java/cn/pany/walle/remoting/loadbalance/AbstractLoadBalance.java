@@ -29,12 +29,17 @@ import java.util.Map;
  */
 public abstract class AbstractLoadBalance implements LoadBalance {
 
+    //selector 的 map 里放服务的 invokerUrl，按服务保存状态的负载均衡用
+    public static final String SERVICE_KEY = "service";
+
     public static Map<RouterType,LoadBalance> loadBalanceMap=new HashMap();
 
     static {
         loadBalanceMap.put(RouterType.RANDOM_LOADBALANCE,RandomLoadBalance.getRandomLoadBalance() );
         loadBalanceMap.put(RouterType.ROUNDROBIN_LOADBALANCE,RoundrobinLoadBalance.getRoundrobinLoadBalance() );
+        loadBalanceMap.put(RouterType.LEASTACTIVE_LOADBALANCE,LeastActiveLoadBalance.getLeastActiveLoadBalance());
         loadBalanceMap.put(RouterType.CONSISTENTHASH_LOADBALANCE,ConsistenthashLoadbalance.getConsistenthashLoadbalance());
+        loadBalanceMap.put(RouterType.P2C_LOADBALANCE,P2cLoadBalance.getP2cLoadBalance());
     }
 
     public static LoadBalance getLoadBanlance(RouterType routerType){
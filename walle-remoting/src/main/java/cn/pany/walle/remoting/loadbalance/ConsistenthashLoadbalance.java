@@ -15,12 +15,32 @@
  */
 package cn.pany.walle.remoting.loadbalance;
 
+import cn.pany.walle.common.constants.WalleConstant;
 import cn.pany.walle.remoting.client.WalleClient;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
+ * Ketama consistent hashing: every provider owns {@link #HASH_NODES} points on a 32-bit ring, hashed
+ * from its address, and a call goes to the first point at or after the hash of its {@link #HASH_KEY}.
+ * When a provider joins or leaves only the keys on its points move.
+ * <p>
+ * One ring per service, keyed by {@link #SERVICE_KEY}. When the provider list changes the ring is
+ * patched rather than rebuilt: the points of the providers that left are dropped and those of the new
+ * ones merged in. Calls without a hash key are spread at random.
+ *
  * @author pany young
  * @email dev_pany@163.com
  * @date 18/10/16
@@ -36,15 +56,150 @@ public class ConsistenthashLoadbalance extends AbstractLoadBalance {
         return consistenthashLoadbalance;
     }
 
-    public static String REQUEST_ID = "";
+    public static final String HASH_KEY = "hashKey";
+    public static final String HASH_NODES = "hashNodes";
+
+    private static final ThreadLocal<MessageDigest> MD5 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private final ConcurrentMap<String, Ring> rings = new ConcurrentHashMap<>();
 
     @Override
     public WalleClient selectorMain( List<WalleClient> clients,Map<String,Object> map) {
-//        if(map==null|| map.isEmpty()||map.get(REQUEST_ID)==null){
-//            return clients.get(0);
-//        }
-        int identityHashCode = System.identityHashCode(System.currentTimeMillis());
-        int index =  identityHashCode % clients.size();
-        return  clients.get(index);
+        Object key = map == null ? null : map.get(HASH_KEY);
+        Object service = map == null ? null : map.get(SERVICE_KEY);
+        if (key == null || service == null) {
+            return clients.get(ThreadLocalRandom.current().nextInt(clients.size()));
+        }
+        Object nodes = map.get(HASH_NODES);
+        Ring ring = rings.computeIfAbsent(service.toString(), s -> new Ring());
+        return ring.select(clients, nodes instanceof Integer ? (Integer) nodes : WalleConstant.DEFAULT_HASH_NODES,
+                hash(MD5.get().digest(key.toString().getBytes(StandardCharsets.UTF_8)), 0));
+    }
+
+    //ketama：一次 md5 的 16 个字节切成 4 个 32 位的点
+    private static long hash(byte[] digest, int number) {
+        return (((long) (digest[3 + number * 4] & 0xFF) << 24)
+                | ((long) (digest[2 + number * 4] & 0xFF) << 16)
+                | ((long) (digest[1 + number * 4] & 0xFF) << 8)
+                | (digest[number * 4] & 0xFF))
+                & 0xFFFFFFFFL;
+    }
+
+    private static final class Ring {
+
+        private volatile Snapshot snapshot = new Snapshot(Collections.emptyList(), 0, new long[0], new WalleClient[0]);
+
+        WalleClient select(List<WalleClient> clients, int nodes, long hash) {
+            Snapshot current = snapshot;
+            //服务端列表是整体替换的，引用没变就是没变
+            if (current.clients != clients || current.nodes != nodes) {
+                current = update(clients, nodes);
+            }
+            return current.locate(hash);
+        }
+
+        private synchronized Snapshot update(List<WalleClient> clients, int nodes) {
+            Snapshot current = snapshot;
+            if (current.clients == clients && current.nodes == nodes) {
+                return current;
+            }
+            if (current.nodes != nodes) {
+                current = new Snapshot(Collections.emptyList(), nodes, new long[0], new WalleClient[0]);
+            }
+            current = current.update(clients);
+            snapshot = current;
+            return current;
+        }
+    }
+
+    private static final class Snapshot {
+        private final List<WalleClient> clients;
+        private final int nodes;
+        //按位置排好序，owners[i] 是 points[i] 所属的服务端
+        private final long[] points;
+        private final WalleClient[] owners;
+
+        Snapshot(List<WalleClient> clients, int nodes, long[] points, WalleClient[] owners) {
+            this.clients = clients;
+            this.nodes = nodes;
+            this.points = points;
+            this.owners = owners;
+        }
+
+        WalleClient locate(long hash) {
+            int index = Arrays.binarySearch(points, hash);
+            if (index < 0) {
+                index = -index - 1;
+            }
+            return owners[index == points.length ? 0 : index];
+        }
+
+        Snapshot update(List<WalleClient> newClients) {
+            Set<WalleClient> present = Collections.newSetFromMap(new IdentityHashMap<>());
+            present.addAll(newClients);
+            Set<WalleClient> known = Collections.newSetFromMap(new IdentityHashMap<>());
+            known.addAll(clients);
+
+            //留下的服务端的点不用重新算
+            int kept = 0;
+            long[] keptPoints = new long[points.length];
+            WalleClient[] keptOwners = new WalleClient[owners.length];
+            for (int i = 0; i < points.length; i++) {
+                if (present.contains(owners[i])) {
+                    keptPoints[kept] = points[i];
+                    keptOwners[kept] = owners[i];
+                    kept++;
+                }
+            }
+
+            int perClient = Math.max(4, nodes / 4 * 4);
+            List<WalleClient> joined = new ArrayList<>();
+            for (WalleClient client : newClients) {
+                if (!known.contains(client)) {
+                    joined.add(client);
+                }
+            }
+            //点的位置左移 31 位，低 31 位放服务端在 joined 里的下标，排序时带着归属，也不会变成负数
+            long[] packed = new long[perClient * joined.size()];
+            int added = 0;
+            MessageDigest md5 = MD5.get();
+            for (int c = 0; c < joined.size(); c++) {
+                String address = joined.get(c).getUrl().getAddress();
+                for (int i = 0; i < perClient / 4; i++) {
+                    byte[] digest = md5.digest((address + "-" + i).getBytes(StandardCharsets.UTF_8));
+                    for (int h = 0; h < 4; h++) {
+                        packed[added++] = hash(digest, h) << 31 | c;
+                    }
+                }
+            }
+            Arrays.sort(packed);
+            long[] addedPoints = new long[added];
+            WalleClient[] addedOwners = new WalleClient[added];
+            for (int i = 0; i < added; i++) {
+                addedPoints[i] = packed[i] >>> 31;
+                addedOwners[i] = joined.get((int) (packed[i] & Integer.MAX_VALUE));
+            }
+
+            //两段都有序，归并
+            long[] mergedPoints = new long[kept + added];
+            WalleClient[] mergedOwners = new WalleClient[kept + added];
+            int i = 0, j = 0, k = 0;
+            while (i < kept || j < added) {
+                if (j == added || (i < kept && keptPoints[i] <= addedPoints[j])) {
+                    mergedPoints[k] = keptPoints[i];
+                    mergedOwners[k++] = keptOwners[i++];
+                } else {
+                    mergedPoints[k] = addedPoints[j];
+                    mergedOwners[k++] = addedOwners[j++];
+                }
+            }
+            return new Snapshot(newClients, nodes, mergedPoints, mergedOwners);
+        }
     }
 }
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2018-2019 Pany Young.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.pany.walle.remoting.loadbalance;
+
+import cn.pany.walle.remoting.client.WalleClient;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Picks the provider with the fewest calls in flight, see {@link WalleClient#getActive()}.
+ * Ties are broken at random so idle providers share the load evenly.
+ */
+public class LeastActiveLoadBalance extends AbstractLoadBalance {
+
+    private static LeastActiveLoadBalance leastActiveLoadBalance = null;
+
+    public static LeastActiveLoadBalance getLeastActiveLoadBalance() {
+        if (leastActiveLoadBalance == null) {
+            leastActiveLoadBalance = new LeastActiveLoadBalance();
+        }
+        return leastActiveLoadBalance;
+    }
+
+    @Override
+    public WalleClient selectorMain(List<WalleClient> clients, Map<String, Object> map) {
+        WalleClient selected = null;
+        long leastActive = Long.MAX_VALUE;
+        //并列最少的个数，第 n 个以 1/n 的概率替换，相当于在并列的里面随机选
+        int ties = 0;
+        for (WalleClient client : clients) {
+            long active = client.getActive();
+            if (active < leastActive) {
+                leastActive = active;
+                selected = client;
+                ties = 1;
+            } else if (active == leastActive && ThreadLocalRandom.current().nextInt(++ties) == 0) {
+                selected = client;
+            }
+        }
+        return selected;
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2018-2019 Pany Young.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.pany.walle.remoting.loadbalance;
+
+import cn.pany.walle.remoting.client.WalleClient;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Power of two choices: samples two distinct providers at random and takes the one with the lower
+ * {@link WalleClient#getLoad()}, a decaying average of its response time times its calls in flight.
+ * A provider that slows down, e.g. in a GC pause, quickly loses most of its traffic, yet still gets
+ * sampled, so it wins it back once it answers fast again. Comparing only two keeps a pick O(1) and
+ * avoids herding every caller onto the single best provider.
+ */
+public class P2cLoadBalance extends AbstractLoadBalance {
+
+    private static P2cLoadBalance p2cLoadBalance = null;
+
+    public static P2cLoadBalance getP2cLoadBalance() {
+        if (p2cLoadBalance == null) {
+            p2cLoadBalance = new P2cLoadBalance();
+        }
+        return p2cLoadBalance;
+    }
+
+    @Override
+    public WalleClient selectorMain(List<WalleClient> clients, Map<String, Object> map) {
+        int size = clients.size();
+        if (size == 1) {
+            return clients.get(0);
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(size);
+        //第二个在剩下的里面选，保证两个不同
+        int second = random.nextInt(size - 1);
+        if (second >= first) {
+            second++;
+        }
+        WalleClient a = clients.get(first);
+        WalleClient b = clients.get(second);
+        return a.getLoad() <= b.getLoad() ? a : b;
+    }
+}
@@ -17,10 +17,9 @@ package cn.pany.walle.remoting.loadbalance;
 
 import cn.pany.walle.remoting.client.WalleClient;
 
-import java.util.Date;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * @author pany young
@@ -40,7 +39,7 @@ public class RandomLoadBalance extends AbstractLoadBalance {
 
     @Override
     public WalleClient selectorMain(List<WalleClient> clients,Map<String, Object> map) {
-        int random = (int) ((new Date().getTime()) % clients.size());
-        return clients.get(random);
+        //不能按当前毫秒取模，同一毫秒内的调用会全落到同一台
+        return clients.get(ThreadLocalRandom.current().nextInt(clients.size()));
     }
 }
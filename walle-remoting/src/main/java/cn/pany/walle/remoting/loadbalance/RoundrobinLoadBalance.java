@@ -18,10 +18,19 @@ package cn.pany.walle.remoting.loadbalance;
 import cn.pany.walle.common.utils.AtomicPositiveInteger;
 import cn.pany.walle.remoting.client.WalleClient;
 
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
+ * Smooth weighted round-robin, as in nginx: on every pick each provider's current weight grows by its
+ * weight, the largest one wins and gives back the total. Weights 5,1,1 give a a b a c a a rather than
+ * a a a a a b c, so a heavy provider never gets a burst. Weights come from
+ * {@link WalleClient#getWeight(String)} for the service in {@link #SERVICE_KEY}, a provider with weight 0
+ * gets nothing while others are up. When all weights are equal it is a plain lock-free round-robin.
+ *
  * @author pany young
  * @email dev_pany@163.com
  * @date 18/10/16
@@ -39,11 +48,70 @@ public class RoundrobinLoadBalance extends AbstractLoadBalance {
 
     AtomicPositiveInteger atomicPositiveInteger =new AtomicPositiveInteger();
 
+    private final ConcurrentMap<String, Smooth> states = new ConcurrentHashMap<>();
 
     @Override
     public WalleClient selectorMain( List<WalleClient> clients,Map<String,Object> map) {
+        Object service = map == null ? null : map.get(SERVICE_KEY);
+        if (service != null && !sameWeight(clients, service.toString())) {
+            WalleClient selected = states.computeIfAbsent(service.toString(), s -> new Smooth()).select(clients, service.toString());
+            if (selected != null) {
+                return selected;
+            }
+        }
         int index =  (atomicPositiveInteger.incrementAndGet()) % clients.size();
         return clients.get(index);
 
     }
+
+    private static boolean sameWeight(List<WalleClient> clients, String service) {
+        int first = clients.get(0).getWeight(service);
+        for (int i = 1; i < clients.size(); i++) {
+            if (clients.get(i).getWeight(service) != first) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static final class Smooth {
+        //每个服务端的 current weight，用数组省得每次装箱
+        private Map<WalleClient, long[]> current = new IdentityHashMap<>();
+        private List<WalleClient> clients;
+
+        synchronized WalleClient select(List<WalleClient> clients, String service) {
+            //列表是整体替换的，引用变了才去掉下线的服务端
+            if (this.clients != clients) {
+                Map<WalleClient, long[]> kept = new IdentityHashMap<>();
+                for (WalleClient client : clients) {
+                    long[] weight = current.get(client);
+                    if (weight != null) {
+                        kept.put(client, weight);
+                    }
+                }
+                current = kept;
+                this.clients = clients;
+            }
+            long total = 0;
+            WalleClient selected = null;
+            long[] selectedWeight = null;
+            for (WalleClient client : clients) {
+                int weight = client.getWeight(service);
+                if (weight <= 0) {
+                    continue;
+                }
+                long[] currentWeight = current.computeIfAbsent(client, c -> new long[1]);
+                currentWeight[0] += weight;
+                total += weight;
+                if (selected == null || currentWeight[0] > selectedWeight[0]) {
+                    selected = client;
+                    selectedWeight = currentWeight;
+                }
+            }
+            if (selected != null) {
+                selectedWeight[0] -= total;
+            }
+            return selected;
+        }
+    }
 }
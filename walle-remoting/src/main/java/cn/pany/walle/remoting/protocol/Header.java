@@ -39,6 +39,8 @@ public class Header {
 	
 	private Map<String,String> attachment=new HashMap<String, String>();//附件
 
+	private byte serializer;//消息体的序列化方式，0 为默认的 protostuff
+
 	public int getCrcCode() {
 		return crcCode;
 	}
@@ -87,11 +89,19 @@ public class Header {
 		this.attachment = attachment;
 	}
 
+	public byte getSerializer() {
+		return serializer;
+	}
+
+	public void setSerializer(byte serializer) {
+		this.serializer = serializer;
+	}
+
 	@Override
 	public String toString() {
 		return "Header [crcCode=" + crcCode + ", length=" + length
 				+ ", sessionID=" + sessionID + ", type=" + type + ", priority="
-				+ priority + ", attachment=" + attachment + "]";
+				+ priority + ", serializer=" + serializer + ", attachment=" + attachment + "]";
 	}
 	
 }
@@ -0,0 +1,233 @@
+/*
+ * Copyright 2018-2019 Pany Young.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.pany.walle.remoting.protocol;
+
+import cn.pany.walle.remoting.exception.WalleRpcException;
+import cn.pany.walle.remoting.transport.TransportConfig;
+import io.netty.channel.Channel;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Values received from the peer on one stream of a connection, read as an {@link Iterator}.
+ * <p>
+ * The IO thread queues the {@code STREAM_NEXT} values, at most {@link StreamFrame#INITIAL_CREDIT} of them
+ * because the sender only sends what it has credit for. Every half window the reader takes, the credit is
+ * handed back. {@link #hasNext()} blocks until a value or the end arrives, a failed stream throws from it.
+ * Closing the iterator before the end tells the sender to stop.
+ */
+public class InboundStream<T> implements Iterator<T>, AutoCloseable {
+
+    private static final AttributeKey<Map<Long, InboundStream<?>>> KEY = AttributeKey.valueOf("walle.inboundStreams");
+
+    //队列里不能放 null，结束和空值用标记对象
+    private static final Object END = new Object();
+    private static final Object NULL = new Object();
+
+    private final Channel channel;
+    private final long streamId;
+    private final byte serializer;
+    private final TransportConfig transportConfig;
+    private final long timeoutMillis;
+    private final BlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+
+    //下面的字段只在读取方线程里用
+    private Object next;
+    private int consumed;
+    private boolean ended;
+    private Throwable failure;
+
+    public InboundStream(Channel channel, long streamId, byte serializer, TransportConfig transportConfig, long timeoutMillis) {
+        this.channel = channel;
+        this.streamId = streamId;
+        this.serializer = serializer;
+        this.transportConfig = transportConfig;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public long getStreamId() {
+        return streamId;
+    }
+
+    protected Channel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Register the stream on its channel, before the peer can send anything on it.
+     */
+    public void register() {
+        Attribute<Map<Long, InboundStream<?>>> attr = channel.attr(KEY);
+        Map<Long, InboundStream<?>> streams = attr.get();
+        if (streams == null) {
+            streams = new ConcurrentHashMap<>();
+            Map<Long, InboundStream<?>> old = attr.setIfAbsent(streams);
+            if (old != null) {
+                streams = old;
+            } else {
+                //连接关闭时让还在读的流立即失败
+                channel.closeFuture().addListener(future -> {
+                    for (InboundStream<?> stream : channel.attr(KEY).get().values()) {
+                        stream.failed(new WalleRpcException(WalleRpcException.NETWORK_EXCEPTION,
+                                "Channel " + channel + " closed before stream [" + stream.streamId + "] ended"));
+                    }
+                });
+            }
+        }
+        streams.put(streamId, this);
+    }
+
+    private boolean unregister() {
+        Map<Long, InboundStream<?>> streams = channel.attr(KEY).get();
+        return streams != null && streams.remove(streamId, this);
+    }
+
+    /**
+     * The stream registered on the channel under the id, null if it already ended.
+     */
+    public static InboundStream<?> get(Channel channel, long streamId) {
+        Map<Long, InboundStream<?>> streams = channel.attr(KEY).get();
+        return streams == null ? null : streams.get(streamId);
+    }
+
+    /**
+     * Route a stream message received on the channel, false if no stream has the id.
+     */
+    public static boolean received(Channel channel, long streamId, boolean end, StreamFrame frame) {
+        InboundStream<?> stream = get(channel, streamId);
+        if (stream == null) {
+            return false;
+        }
+        if (end) {
+            stream.ended(frame == null ? null : frame.getError());
+        } else {
+            stream.queue.add(frame == null || frame.getValue() == null ? NULL : frame.getValue());
+        }
+        return true;
+    }
+
+    /**
+     * A plain response to the call, sent when the call failed before streaming or by a server
+     * that does not stream.
+     */
+    public static boolean responded(Channel channel, long streamId, WalleBizResponse response) {
+        InboundStream<?> stream = get(channel, streamId);
+        if (stream == null) {
+            return false;
+        }
+        stream.ended(response.getError());
+        return true;
+    }
+
+    public void failed(Throwable cause) {
+        ended(cause);
+    }
+
+    private void ended(Throwable error) {
+        if (unregister()) {
+            queue.add(error == null ? END : new Failure(error));
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next != null) {
+            return true;
+        }
+        if (ended) {
+            throwFailure();
+            return false;
+        }
+        Object value;
+        try {
+            value = queue.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            close();
+            throw new WalleRpcException(WalleRpcException.UNKNOWN_EXCEPTION, "stream [" + streamId + "] is interrupted", e);
+        }
+        if (value == null) {
+            close();
+            throw new WalleRpcException(WalleRpcException.TIMEOUT_EXCEPTION, "stream [" + streamId + "] is time out");
+        }
+        if (value == END || value instanceof Failure) {
+            ended = true;
+            failure = value == END ? null : ((Failure) value).cause;
+            throwFailure();
+            return false;
+        }
+        next = value;
+        return true;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Object value = next;
+        next = null;
+        //消费了半个窗口就把额度还给发送方
+        if (++consumed >= StreamFrame.INITIAL_CREDIT / 2) {
+            transportConfig.write(channel, StreamFrame.credit(streamId, serializer, consumed));
+            consumed = 0;
+        }
+        return value == NULL ? null : (T) value;
+    }
+
+    /**
+     * Stop reading, the sender is told to stop when the stream has not ended yet.
+     */
+    @Override
+    public void close() {
+        if (ended) {
+            return;
+        }
+        ended = true;
+        next = null;
+        if (unregister() && channel.isActive()) {
+            transportConfig.write(channel, StreamFrame.cancel(streamId));
+        }
+    }
+
+    private void throwFailure() {
+        Throwable cause = failure;
+        if (cause == null) {
+            return;
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        throw new WalleRpcException(WalleRpcException.BIZ_EXCEPTION, "stream [" + streamId + "] failed: " + cause, cause);
+    }
+
+    private static final class Failure {
+        private final Throwable cause;
+
+        Failure(Throwable cause) {
+            this.cause = cause;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2018-2019 Pany Young.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.pany.walle.remoting.protocol;
+
+import cn.pany.walle.remoting.serialize.Serializer;
+import io.netty.buffer.ByteBuf;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A message body the decoder left serialized, so it is deserialized on the thread that handles the
+ * message rather than on the IO thread.
+ * <p>
+ * Holds a retained slice of the frame: whoever takes the message must either {@link #decode()} or
+ * {@link #release()} it exactly once.
+ */
+public final class LazyBody {
+
+    private final ByteBuf bytes;
+    private final Serializer serializer;
+    private final Class<?> type;
+    //decode 和 release 只能有一个生效
+    private final AtomicBoolean consumed = new AtomicBoolean();
+
+    public LazyBody(ByteBuf bytes, Serializer serializer, Class<?> type) {
+        this.bytes = bytes;
+        this.serializer = serializer;
+        this.type = type;
+    }
+
+    /**
+     * Deserialize the body and release its bytes.
+     */
+    public Object decode() throws IOException {
+        if (!consumed.compareAndSet(false, true)) {
+            throw new IllegalStateException("body of " + type.getName() + " already consumed");
+        }
+        try {
+            return serializer.deserialize(bytes, bytes.readableBytes(), type);
+        } finally {
+            bytes.release();
+        }
+    }
+
+    /**
+     * Drop the body without reading it.
+     */
+    public void release() {
+        if (consumed.compareAndSet(false, true)) {
+            bytes.release();
+        }
+    }
+
+    /**
+     * The body of the message, deserialized in place when it was left lazy.
+     */
+    public static Object resolve(WalleMessage message) throws IOException {
+        Object body = message.getBody();
+        if (body instanceof LazyBody) {
+            body = ((LazyBody) body).decode();
+            message.setBody(body);
+        }
+        return body;
+    }
+
+    /**
+     * Release the body of the message when it was left lazy.
+     */
+    public static void release(WalleMessage message) {
+        if (message.getBody() instanceof LazyBody) {
+            ((LazyBody) message.getBody()).release();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "LazyBody [type=" + type.getName() + ", length=" + bytes.readableBytes() + "]";
+    }
+}
@@ -26,6 +26,16 @@ public class LoginBody implements Serializable{
 
     private int port;//消息类型
     private String ip;//消息类型
+    //服务端导出方法的 id 表，只在 LOGIN_RESP 里有
+    private MethodIdTable methodIdTable;
+    //请求里是客户端支持的最高帧版本，响应里是双方商定的版本
+    private int protocolVersion;
+    //请求里是客户端启用的序列化方式 id，响应里是双方商定的，按位表示
+    private int serializers;
+    //能解压的压缩算法，按位表示
+    private int compressions;
+    //能解码的可选帧，按位表示，老版本没有这个字段，读出来是 0
+    private int features;
 
     public byte getIsOk() {
         return isOk;
@@ -50,4 +60,44 @@ public class LoginBody implements Serializable{
     public void setIp(String ip) {
         this.ip = ip;
     }
+
+    public MethodIdTable getMethodIdTable() {
+        return methodIdTable;
+    }
+
+    public void setMethodIdTable(MethodIdTable methodIdTable) {
+        this.methodIdTable = methodIdTable;
+    }
+
+    public int getProtocolVersion() {
+        return protocolVersion;
+    }
+
+    public void setProtocolVersion(int protocolVersion) {
+        this.protocolVersion = protocolVersion;
+    }
+
+    public int getSerializers() {
+        return serializers;
+    }
+
+    public void setSerializers(int serializers) {
+        this.serializers = serializers;
+    }
+
+    public int getCompressions() {
+        return compressions;
+    }
+
+    public void setCompressions(int compressions) {
+        this.compressions = compressions;
+    }
+
+    public int getFeatures() {
+        return features;
+    }
+
+    public void setFeatures(int features) {
+        this.features = features;
+    }
 }
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2018-2019 Pany Young.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.pany.walle.remoting.protocol;
+
+import io.netty.util.AttributeKey;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Numeric ids of the methods a server exports, sent in the {@code LOGIN_RESP} of each connection.
+ * <p>
+ * Once a connection has the table, requests for a listed method carry only
+ * {@link WalleBizRequest#getMethodId()} instead of class name, method name, version and parameter types.
+ * Connections to servers that never answer the login keep sending the full form.
+ */
+public class MethodIdTable implements Serializable {
+
+    private static final long serialVersionUID = 4630962316452201186L;
+
+    public static final AttributeKey<MethodIdTable> KEY = AttributeKey.valueOf("walle.methodIds");
+
+    private List<MethodId> methods = new ArrayList<>();
+
+    //客户端按方法名建的索引，不参与序列化
+    private transient volatile Map<String, MethodId[]> index;
+
+    public List<MethodId> getMethods() {
+        return methods;
+    }
+
+    public void setMethods(List<MethodId> methods) {
+        this.methods = methods;
+        this.index = null;
+    }
+
+    public void add(int id, String className, String version, String methodName, Class<?>[] parameterTypes, byte serializer) {
+        String[] typeNames = new String[parameterTypes.length];
+        for (int i = 0; i < parameterTypes.length; i++) {
+            typeNames[i] = parameterTypes[i].getName();
+        }
+        MethodId methodId = new MethodId();
+        methodId.setId(id);
+        methodId.setClassName(className);
+        methodId.setVersion(version);
+        methodId.setMethodName(methodName);
+        methodId.setParameterTypes(typeNames);
+        methodId.setSerializer(serializer);
+        methods.add(methodId);
+        index = null;
+    }
+
+    /**
+     * The method the request calls, null when the server did not list it.
+     */
+    public MethodId find(WalleBizRequest request) {
+        MethodId[] candidates = index().get(request.getMethodName());
+        if (candidates == null) {
+            return null;
+        }
+        for (MethodId candidate : candidates) {
+            if (candidate.matches(request)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    private Map<String, MethodId[]> index() {
+        Map<String, MethodId[]> map = index;
+        if (map == null) {
+            Map<String, List<MethodId>> byName = new HashMap<>();
+            for (MethodId method : methods) {
+                byName.computeIfAbsent(method.getMethodName(), k -> new ArrayList<>()).add(method);
+            }
+            map = new HashMap<>();
+            for (Map.Entry<String, List<MethodId>> entry : byName.entrySet()) {
+                map.put(entry.getKey(), entry.getValue().toArray(new MethodId[0]));
+            }
+            index = map;
+        }
+        return map;
+    }
+
+    @Override
+    public String toString() {
+        return "MethodIdTable [size=" + methods.size() + "]";
+    }
+
+    public static class MethodId implements Serializable {
+
+        private static final long serialVersionUID = -6231808245387127013L;
+
+        private int id;
+        private String className;
+        private String version;
+        private String methodName;
+        private String[] parameterTypes;
+        //服务端为这个服务配置的序列化方式，0 表示没有要求
+        private byte serializer;
+
+        boolean matches(WalleBizRequest request) {
+            if (!className.equals(request.getClassName()) || !sameVersion(request.getVersion())) {
+                return false;
+            }
+            Class<?>[] types = request.getParameterTypes();
+            int length = types == null ? 0 : types.length;
+            int expected = parameterTypes == null ? 0 : parameterTypes.length;
+            if (length != expected) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (!parameterTypes[i].equals(types[i].getName())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean sameVersion(String other) {
+            return version == null ? other == null || other.isEmpty() : version.equals(other);
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public void setId(int id) {
+            this.id = id;
+        }
+
+        public String getClassName() {
+            return className;
+        }
+
+        public void setClassName(String className) {
+            this.className = className;
+        }
+
+        public String getVersion() {
+            return version;
+        }
+
+        public void setVersion(String version) {
+            this.version = version;
+        }
+
+        public String getMethodName() {
+            return methodName;
+        }
+
+        public void setMethodName(String methodName) {
+            this.methodName = methodName;
+        }
+
+        public String[] getParameterTypes() {
+            return parameterTypes;
+        }
+
+        public void setParameterTypes(String[] parameterTypes) {
+            this.parameterTypes = parameterTypes;
+        }
+
+        public byte getSerializer() {
+            return serializer;
+        }
+
+        public void setSerializer(byte serializer) {
+            this.serializer = serializer;
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2018-2019 Pany Young.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.pany.walle.remoting.protocol;
+
+import cn.pany.walle.remoting.transport.TransportConfig;
+import io.netty.channel.Channel;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends the values of an {@link Iterator} to the peer as {@code STREAM_NEXT} messages, then {@code STREAM_END}.
+ * <p>
+ * Values are pulled only while the peer has credit left, so a slow reader keeps at most
+ * {@link StreamFrame#INITIAL_CREDIT} values in flight and the rest are never produced. When the credit
+ * runs out the pumping thread is given back; a {@code STREAM_CREDIT} from the peer schedules the
+ * pump again through {@link #execute()}. A {@code STREAM_CANCEL} stops it without an end.
+ */
+public abstract class OutboundStream implements Runnable {
+    private static final Logger log = LoggerFactory.getLogger(OutboundStream.class);
+
+    private static final AttributeKey<Map<Long, OutboundStream>> KEY = AttributeKey.valueOf("walle.outboundStreams");
+    //没有线程接手时，隔这么久再试
+    private static final long RETRY_DELAY_MILLIS = 10;
+
+    private final Channel channel;
+    private final long streamId;
+    private final byte serializer;
+    private final Iterator<?> values;
+    private final TransportConfig transportConfig;
+
+    private final AtomicInteger credit = new AtomicInteger(StreamFrame.INITIAL_CREDIT);
+    //同一时间只有一个线程在读 values
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private volatile boolean done;
+    //只在发起方线程上读写
+    private boolean registered;
+
+    protected OutboundStream(Channel channel, long streamId, byte serializer, Iterator<?> values,
+                             TransportConfig transportConfig) {
+        this.channel = channel;
+        this.streamId = streamId;
+        this.serializer = serializer;
+        this.values = values;
+        this.transportConfig = transportConfig;
+    }
+
+    /**
+     * Run {@link #run()} on a thread that may block on the iterator, or call {@link #reject(Throwable)}
+     * or {@link #retryLater()}.
+     */
+    protected abstract void execute();
+
+    /**
+     * Called once when the stream is over, ended or cancelled.
+     */
+    protected void closed() {
+    }
+
+    /**
+     * Make the stream reachable by {@link #credit} and {@link #cancel(Channel, long)} before the message
+     * that opens it is written, so a failed write can cancel it; {@link #start()} then begins pumping.
+     */
+    public void register() {
+        registered = true;
+        streams(channel).put(streamId, this);
+    }
+
+    public void start() {
+        if (!registered) {
+            register();
+        }
+        //写请求的时候已经被取消了
+        if (done) {
+            return;
+        }
+        //连接在登记之前就关了
+        if (!channel.isActive()) {
+            cancel();
+            return;
+        }
+        schedule();
+    }
+
+    public static void credit(Channel channel, long streamId, int credit) {
+        OutboundStream stream = streams(channel).get(streamId);
+        if (stream != null) {
+            stream.credit.addAndGet(credit);
+            stream.schedule();
+        }
+    }
+
+    public static void cancel(Channel channel, long streamId) {
+        OutboundStream stream = streams(channel).remove(streamId);
+        if (stream != null) {
+            stream.cancel();
+        }
+    }
+
+    private static Map<Long, OutboundStream> streams(Channel channel) {
+        Attribute<Map<Long, OutboundStream>> attr = channel.attr(KEY);
+        Map<Long, OutboundStream> streams = attr.get();
+        if (streams == null) {
+            streams = new ConcurrentHashMap<>();
+            Map<Long, OutboundStream> old = attr.setIfAbsent(streams);
+            if (old != null) {
+                streams = old;
+            } else {
+                //连接断开后不再生产
+                channel.closeFuture().addListener(future -> {
+                    for (OutboundStream stream : channel.attr(KEY).get().values()) {
+                        stream.cancel();
+                    }
+                });
+            }
+        }
+        return streams;
+    }
+
+    private void schedule() {
+        if (!done && credit.get() > 0 && running.compareAndSet(false, true)) {
+            execute();
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!done && credit.get() > 0) {
+                if (!values.hasNext()) {
+                    finish(null);
+                    return;
+                }
+                Object value = values.next();
+                credit.decrementAndGet();
+                transportConfig.write(channel, StreamFrame.next(streamId, serializer, value));
+            }
+        } catch (Throwable t) {
+            finish(t);
+            return;
+        } finally {
+            running.set(false);
+        }
+        if (done) {
+            //读的时候被取消了
+            cancel();
+        } else {
+            //等待期间可能又收到了额度
+            schedule();
+        }
+    }
+
+    public void reject(Throwable cause) {
+        running.set(false);
+        finish(cause);
+    }
+
+    /**
+     * For {@link #execute()} when no thread can take the pump now: give it up and try again on the
+     * next credit or after a short pause, whichever comes first.
+     */
+    protected void retryLater() {
+        running.set(false);
+        if (done) {
+            //等线程的时候被取消了
+            cancel();
+        } else {
+            channel.eventLoop().schedule(this::schedule, RETRY_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void finish(Throwable error) {
+        done = true;
+        streams(channel).remove(streamId);
+        transportConfig.write(channel, StreamFrame.end(streamId, serializer, error));
+        close();
+    }
+
+    private void cancel() {
+        done = true;
+        //正在读的线程会在下一轮自己关
+        if (running.compareAndSet(false, true)) {
+            close();
+        }
+    }
+
+    private void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        if (values instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) values).close();
+            } catch (Exception e) {
+                log.warn("close stream [{}] on channel [{}] error", streamId, channel, e);
+            }
+        }
+        closed();
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2018-2019 Pany Young.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.pany.walle.remoting.protocol;
+
+import cn.pany.walle.common.protocol.MessageType;
+
+import java.io.Serializable;
+
+/**
+ * Body of the stream messages, all of them carry the id of the call that opened the stream as sessionID.
+ * <ul>
+ * <li>{@code STREAM_NEXT} one value</li>
+ * <li>{@code STREAM_END} no more values, with the error that ended the stream if any</li>
+ * <li>{@code STREAM_CREDIT} how many more values the receiver is ready for</li>
+ * <li>{@code STREAM_CANCEL} the receiver gave up, no body</li>
+ * </ul>
+ * Values flow server to client for a method returning an {@link java.util.Iterator}, and client to server
+ * for a method taking one, marked on the request by the {@link #PARAMETER_ATTACHMENT} attachment. Both
+ * directions of a bidirectional call share the id; each side only sends credit and cancel for what it reads.
+ */
+public class StreamFrame implements Serializable {
+
+    /**
+     * Values a sender may have in flight before it gets any credit back.
+     */
+    public static final int INITIAL_CREDIT = 256;
+
+    /**
+     * Request attachment with the index of the parameter whose values follow the request as a stream.
+     */
+    public static final String PARAMETER_ATTACHMENT = "streamParameter";
+
+    /**
+     * Request attachment present when the caller reads the {@link java.util.Iterator} result as a stream.
+     */
+    public static final String RESULT_ATTACHMENT = "streamResult";
+
+    private Object value;
+    private Throwable error;
+    private int credit;
+
+    public static WalleMessage next(long streamId, byte serializer, Object value) {
+        StreamFrame frame = new StreamFrame();
+        frame.setValue(value);
+        return message(MessageType.STREAM_NEXT, streamId, serializer, frame);
+    }
+
+    public static WalleMessage end(long streamId, byte serializer, Throwable error) {
+        StreamFrame frame = null;
+        if (error != null) {
+            frame = new StreamFrame();
+            frame.setError(error);
+        }
+        return message(MessageType.STREAM_END, streamId, serializer, frame);
+    }
+
+    public static WalleMessage credit(long streamId, byte serializer, int credit) {
+        StreamFrame frame = new StreamFrame();
+        frame.setCredit(credit);
+        return message(MessageType.STREAM_CREDIT, streamId, serializer, frame);
+    }
+
+    public static WalleMessage cancel(long streamId) {
+        return message(MessageType.STREAM_CANCEL, streamId, (byte) 0, null);
+    }
+
+    /**
+     * Index of the parameter streamed after the request, -1 when the request has none.
+     */
+    public static int streamParameter(Header header) {
+        String index = header.getAttachment().get(PARAMETER_ATTACHMENT);
+        return index == null ? -1 : Integer.parseInt(index);
+    }
+
+    public static boolean streamsResult(Header header) {
+        return header.getAttachment().containsKey(RESULT_ATTACHMENT);
+    }
+
+    private static WalleMessage message(MessageType type, long streamId, byte serializer, StreamFrame frame) {
+        WalleMessage message = new WalleMessage();
+        Header header = new Header();
+        header.setType(type);
+        header.setSessionID(streamId);
+        header.setSerializer(serializer);
+        message.setHeader(header);
+        message.setBody(frame);
+        return message;
+    }
+
+    public Object getValue() {
+        return value;
+    }
+
+    public void setValue(Object value) {
+        this.value = value;
+    }
+
+    public Throwable getError() {
+        return error;
+    }
+
+    public void setError(Throwable error) {
+        this.error = error;
+    }
+
+    public int getCredit() {
+        return credit;
+    }
+
+    public void setCredit(int credit) {
+        this.credit = credit;
+    }
+
+    @Override
+    public String toString() {
+        return "StreamFrame [value=" + value + ", error=" + error + ", credit=" + credit + "]";
+    }
+}
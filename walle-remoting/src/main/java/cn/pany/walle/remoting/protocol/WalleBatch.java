@@ -0,0 +1,114 @@
+/*
+ * Copyright 2018-2019 Pany Young.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.pany.walle.remoting.protocol;
+
+import cn.pany.walle.common.protocol.MessageType;
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Body of a {@link MessageType#BATCH_REQ} or {@link MessageType#BATCH_RESP} message:
+ * several requests or responses sharing one frame header.
+ * <p>
+ * On the wire each entry is only its sessionID and body, so entries must not carry
+ * attachments other than {@code bodyClass}, and all of them share one serializer.
+ * <p>
+ * Batches are only written to a peer that said at login it can decode them.
+ */
+public class WalleBatch {
+
+    /**
+     * Bit of {@link LoginBody#getFeatures()}: the sender decodes batch frames.
+     */
+    public static final int FEATURE = 1;
+
+    //登录时对端声明能解批量帧才设置
+    private static final AttributeKey<Boolean> PEER_DECODES = AttributeKey.valueOf("walle.peerDecodesBatch");
+
+    private final List<WalleMessage> messages;
+
+    public WalleBatch(List<WalleMessage> messages) {
+        this.messages = messages;
+    }
+
+    public List<WalleMessage> getMessages() {
+        return messages;
+    }
+
+    /**
+     * Record what the peer of the connection sent in the features of its login.
+     */
+    public static void peerFeatures(Channel channel, int features) {
+        channel.attr(PEER_DECODES).set((features & FEATURE) != 0);
+    }
+
+    public static boolean peerDecodes(Channel channel) {
+        return Boolean.TRUE.equals(channel.attr(PEER_DECODES).get());
+    }
+
+    public static WalleMessage of(MessageType entryType, List<WalleMessage> messages) {
+        WalleMessage message = new WalleMessage();
+        Header header = new Header();
+        header.setType(batchType(entryType));
+        //同一批的消息体用同一种序列化方式
+        header.setSerializer(messages.get(0).getHeader().getSerializer());
+        message.setHeader(header);
+        message.setBody(new WalleBatch(messages));
+        return message;
+    }
+
+    /**
+     * Whether the message can go into a batch, only plain requests and responses can.
+     */
+    public static boolean isBatchable(Object msg) {
+        if (!(msg instanceof WalleMessage)) {
+            return false;
+        }
+        WalleMessage message = (WalleMessage) msg;
+        Header header = message.getHeader();
+        if (header == null || message.getBody() == null || batchType(header.getType()) == null) {
+            return false;
+        }
+        Map<String, String> attachment = header.getAttachment();
+        return attachment.isEmpty() || (attachment.size() == 1 && attachment.containsKey("bodyClass"));
+    }
+
+    public static MessageType batchType(MessageType entryType) {
+        if (entryType == MessageType.SERVICE_REQ) {
+            return MessageType.BATCH_REQ;
+        } else if (entryType == MessageType.SERVICE_RESP) {
+            return MessageType.BATCH_RESP;
+        }
+        return null;
+    }
+
+    public static MessageType entryType(MessageType batchType) {
+        if (batchType == MessageType.BATCH_REQ) {
+            return MessageType.SERVICE_REQ;
+        } else if (batchType == MessageType.BATCH_RESP) {
+            return MessageType.SERVICE_RESP;
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "WalleBatch [size=" + messages.size() + "]";
+    }
+}
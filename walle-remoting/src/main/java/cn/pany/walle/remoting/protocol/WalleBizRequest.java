@@ -27,6 +27,8 @@ public class WalleBizRequest implements Serializable {
     private String version;
     private Class<?>[] parameterTypes;
     private Object[] parameters;
+    //握手拿到方法 id 后只传 id，上面的类名、方法名、版本、参数类型都为空
+    private int methodId;
 
 
     public String getRequestId() {
@@ -76,4 +78,12 @@ public class WalleBizRequest implements Serializable {
     public void setVersion(String version) {
         this.version = version;
     }
+
+    public int getMethodId() {
+        return methodId;
+    }
+
+    public void setMethodId(int methodId) {
+        this.methodId = methodId;
+    }
 }
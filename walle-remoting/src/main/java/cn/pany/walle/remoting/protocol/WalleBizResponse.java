@@ -15,20 +15,18 @@
  */
 package cn.pany.walle.remoting.protocol;
 
-import java.util.Date;
+import java.io.Serializable;
 
 /**
  * Created by pany on 16/9/4.
  */
-public class WalleBizResponse {
+public class WalleBizResponse implements Serializable {
 
     private String requestId;
     private Throwable error;
     private Object result;
 
     private Boolean success;
-    private Date receiveTime;
-    private Long timeOutNum;
 
 
     public String getRequestId() {
@@ -62,20 +60,4 @@ public class WalleBizResponse {
     public void setSuccess(Boolean success) {
         this.success = success;
     }
-
-    public Date getReceiveTime() {
-        return receiveTime;
-    }
-
-    public void setReceiveTime(Date receiveTime) {
-        this.receiveTime = receiveTime;
-    }
-
-    public Long getTimeOutNum() {
-        return timeOutNum;
-    }
-
-    public void setTimeOutNum(Long timeOutNum) {
-        this.timeOutNum = timeOutNum;
-    }
 }
@@ -24,6 +24,8 @@ public class WalleMessage {
 	private Header header;//消息头
 	
 	private Object body;//消息体
+
+	private transient String hashKey;//一致性 hash 选服务端用，不编码
 	
 
 	public Header getHeader() {
@@ -42,6 +44,14 @@ public class WalleMessage {
 		this.body = body;
 	}
 
+	public String getHashKey() {
+		return hashKey;
+	}
+
+	public void setHashKey(String hashKey) {
+		this.hashKey = hashKey;
+	}
+
 	@Override
 	public String toString() {
 		return "WalleMessage [header="+header+"]";
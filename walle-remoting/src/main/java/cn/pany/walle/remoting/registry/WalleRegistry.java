@@ -26,6 +26,7 @@ import org.apache.curator.framework.state.ConnectionState;
 import org.apache.curator.framework.state.ConnectionStateListener;
 import org.apache.curator.retry.RetryNTimes;
 import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
 import org.apache.zookeeper.data.Stat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -153,7 +154,22 @@ public class WalleRegistry {
     }
 
     private void setDataNode(String path, String data) throws Exception {
-        register().create().creatingParentContainersIfNeeded().withMode(CreateMode.EPHEMERAL).
+        CuratorFramework curator = register();
+        Stat stat = curator.checkExists().forPath(path);
+        //重连时本会话的节点还在，直接改数据，客户端收到 CHILD_UPDATED 不用重连
+        if (stat != null && stat.getEphemeralOwner() == curator.getZookeeperClient().getZooKeeper().getSessionId()) {
+            curator.setData().forPath(path, (data).getBytes());
+            return;
+        }
+        //旧会话留下的节点会随旧会话过期被删掉，删了换成本会话的
+        if (stat != null) {
+            try {
+                curator.delete().forPath(path);
+            } catch (KeeperException.NoNodeException e) {
+                //已经过期删掉了
+            }
+        }
+        curator.create().creatingParentContainersIfNeeded().withMode(CreateMode.EPHEMERAL).
                 forPath(path, (data).getBytes());
     }
 
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2018-2019 Pany Young.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.pany.walle.remoting.serialize;
+
+import com.caucho.hessian.io.Hessian2Input;
+import com.caucho.hessian.io.Hessian2Output;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.util.concurrent.FastThreadLocal;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.lang.reflect.WildcardType;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Hessian 2 codec. Unlike protostuff it writes field names and class definitions, so it keeps
+ * {@code null} elements of arrays and lists, polymorphic map values and shared references, and
+ * tolerates fields added on one side only. The price is larger frames for flat objects.
+ * <p>
+ * Hessian creates objects of the classes named in the stream, so only these are resolved: the classes
+ * of {@code java.lang} and {@code java.util}, other JDK exceptions, the walle messages, and the parameter,
+ * return and exception types of the services configured with it, with the declared types of their fields.
+ * A subclass that no declaration names, e.g. the implementation behind an interface typed field,
+ * is read as a map instead. Values must be {@link java.io.Serializable}.
+ */
+public class HessianSerializer implements Serializer {
+
+    //java.* 里默认只放行这两个包，其他 JDK 类要在服务的类型里出现过
+    private static final Pattern JDK_ALLOWED = Pattern.compile("java\\.lang\\.[^.]+|java\\.util\\.(concurrent\\.)?[^.]+");
+
+    //类的序列化器缓存，所有连接共用
+    private static final AllowListFactory FACTORY = new AllowListFactory();
+
+    static {
+        FACTORY.getClassFactory().allow("cn.pany.walle.remoting.protocol.*");
+        FACTORY.getClassFactory().allow("cn.pany.walle.remoting.exception.*");
+    }
+
+    //Hessian2Output 自带 4K 缓冲，线程私有复用，每次 init 时清掉上一次的类定义和引用
+    private static final FastThreadLocal<Hessian2Output> OUTPUT = new FastThreadLocal<Hessian2Output>() {
+        @Override
+        protected Hessian2Output initialValue() {
+            Hessian2Output output = new Hessian2Output();
+            output.setSerializerFactory(FACTORY);
+            return output;
+        }
+    };
+
+    private static final FastThreadLocal<Hessian2Input> INPUT = new FastThreadLocal<Hessian2Input>() {
+        @Override
+        protected Hessian2Input initialValue() {
+            Hessian2Input input = new Hessian2Input();
+            input.setSerializerFactory(FACTORY);
+            return input;
+        }
+    };
+
+    @Override
+    public byte getId() {
+        return SerializerFactory.HESSIAN;
+    }
+
+    @Override
+    public String getName() {
+        return "hessian";
+    }
+
+    @Override
+    public void allowTypes(Class<?> serviceInterface) {
+        Set<Class<?>> seen = new HashSet<>();
+        for (Method method : serviceInterface.getMethods()) {
+            for (Type type : method.getGenericParameterTypes()) {
+                collect(type, seen);
+            }
+            collect(method.getGenericReturnType(), seen);
+            for (Type type : method.getGenericExceptionTypes()) {
+                collect(type, seen);
+            }
+        }
+        for (Class<?> type : seen) {
+            FACTORY.allow(type);
+        }
+    }
+
+    //参数类型连同它字段里声明的类型一起放行，JDK 的类不往里走
+    private static void collect(Type type, Set<Class<?>> seen) {
+        if (type instanceof Class) {
+            Class<?> cl = (Class<?>) type;
+            while (cl.isArray()) {
+                cl = cl.getComponentType();
+            }
+            if (cl.isPrimitive() || !seen.add(cl) || cl.getName().startsWith("java.")) {
+                return;
+            }
+            for (Class<?> c = cl; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    if ((field.getModifiers() & (Modifier.STATIC | Modifier.TRANSIENT)) == 0) {
+                        collect(field.getGenericType(), seen);
+                    }
+                }
+            }
+        } else if (type instanceof ParameterizedType) {
+            collect(((ParameterizedType) type).getRawType(), seen);
+            for (Type argument : ((ParameterizedType) type).getActualTypeArguments()) {
+                collect(argument, seen);
+            }
+        } else if (type instanceof GenericArrayType) {
+            collect(((GenericArrayType) type).getGenericComponentType(), seen);
+        } else if (type instanceof WildcardType) {
+            for (Type bound : ((WildcardType) type).getUpperBounds()) {
+                collect(bound, seen);
+            }
+            for (Type bound : ((WildcardType) type).getLowerBounds()) {
+                collect(bound, seen);
+            }
+        } else if (type instanceof TypeVariable) {
+            for (Type bound : ((TypeVariable<?>) type).getBounds()) {
+                collect(bound, seen);
+            }
+        }
+    }
+
+    @Override
+    public void serialize(Object obj, ByteBuf out) throws IOException {
+        Hessian2Output output = OUTPUT.get();
+        output.init(new ByteBufOutputStream(out));
+        try {
+            output.writeObject(obj);
+            output.flush();
+        } finally {
+            output.init(null);
+        }
+    }
+
+    @Override
+    public Object deserialize(ByteBuf in, int length, Class<?> type) throws IOException {
+        int start = in.readerIndex();
+        Hessian2Input input = INPUT.get();
+        input.init(new ByteBufInputStream(in, length));
+        try {
+            return input.readObject(type);
+        } finally {
+            input.init(null);
+            in.readerIndex(start + length);
+        }
+    }
+
+    /**
+     * Resolves class names of the stream through the allow list. Hessian's own {@link
+     * com.caucho.hessian.io.ClassFactory} lets all of {@code java.*} through before any rule added to it,
+     * so those are narrowed here.
+     */
+    private static final class AllowListFactory extends com.caucho.hessian.io.SerializerFactory {
+        //服务类型里出现的 JDK 类，例如 java.math.BigDecimal
+        private final Set<String> jdkTypes = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+        void allow(Class<?> type) {
+            if (type.getName().startsWith("java.")) {
+                jdkTypes.add(type.getName());
+            } else {
+                //ClassFactory 把规则当正则用，只转义了点
+                getClassFactory().allow(type.getName().replace("$", "\\$"));
+            }
+        }
+
+        @Override
+        public Class<?> loadSerializedClass(String className) throws ClassNotFoundException {
+            if (className.startsWith("java.") && !JDK_ALLOWED.matcher(className).matches()
+                    && !jdkTypes.contains(className) && !isJdkThrowable(className)) {
+                throw new ClassNotFoundException(className + " is not allowed by the hessian serializer");
+            }
+            return super.loadSerializedClass(className);
+        }
+
+        //服务端的异常常被 JDK 其他包的异常包着，例如 InvocationTargetException；只加载不初始化，看是不是异常
+        private boolean isJdkThrowable(String className) {
+            try {
+                return Throwable.class.isAssignableFrom(Class.forName(className, false, getClassLoader()));
+            } catch (ClassNotFoundException | LinkageError e) {
+                return false;
+            }
+        }
+    }
+}
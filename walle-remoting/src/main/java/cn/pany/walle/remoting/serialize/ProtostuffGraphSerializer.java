@@ -0,0 +1,75 @@
+/*
+ * Copyright 2018-2019 Pany Young.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.pany.walle.remoting.serialize;
+
+import cn.pany.walle.remoting.utils.SerializationUtil;
+import com.dyuproject.protostuff.GraphIOUtil;
+import com.dyuproject.protostuff.LinkedBuffer;
+import com.dyuproject.protostuff.Schema;
+import io.netty.buffer.ByteBufInputStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Protostuff graph codec: shared and cyclic references are written once and restored as such,
+ * which keeps deep object graphs small and makes cycles work at all.
+ * <p>
+ * It is the same wire format and schemas as {@link ProtostuffSerializer} plus reference tracking,
+ * so it is not faster for flat payloads; {@link HessianSerializer} is the codec with a different format.
+ */
+public class ProtostuffGraphSerializer extends ProtostuffSerializer {
+
+    @Override
+    public byte getId() {
+        return SerializerFactory.PROTOSTUFF_GRAPH;
+    }
+
+    @Override
+    public String getName() {
+        return "protostuff-graph";
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected void writeTo(Object obj, OutputStream out, LinkedBuffer buffer) throws IOException {
+        try {
+            GraphIOUtil.writeTo(out, obj, (Schema<Object>) SerializationUtil.getSchema(obj.getClass()), buffer);
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected Object mergeFrom(byte[] data, int offset, int length, Class<?> type) throws IOException {
+        Object message = SerializationUtil.newInstance(type);
+        GraphIOUtil.mergeFrom(data, offset, length, message, (Schema<Object>) SerializationUtil.getSchema(type));
+        return message;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected Object mergeFrom(ByteBufInputStream in, Class<?> type, LinkedBuffer buffer) throws IOException {
+        Object message = SerializationUtil.newInstance(type);
+        try {
+            GraphIOUtil.mergeFrom(in, message, (Schema<Object>) SerializationUtil.getSchema(type), buffer);
+        } finally {
+            buffer.clear();
+        }
+        return message;
+    }
+}
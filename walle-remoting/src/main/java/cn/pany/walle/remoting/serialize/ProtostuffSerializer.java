@@ -0,0 +1,117 @@
+/*
+ * Copyright 2018-2019 Pany Young.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.pany.walle.remoting.serialize;
+
+import cn.pany.walle.remoting.utils.SerializationUtil;
+import com.dyuproject.protostuff.LinkedBuffer;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.util.concurrent.FastThreadLocal;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Protostuff runtime schema codec, the default.
+ * <p>
+ * Output goes straight into the outgoing buffer and input is read in place, through
+ * thread-local scratch buffers, so no intermediate byte[] is created.
+ */
+public class ProtostuffSerializer implements Serializer {
+
+    //序列化时的暂存区和输出适配器都是线程私有的，编码不再分配临时 byte[]
+    private static final FastThreadLocal<LinkedBuffer> WRITE_BUFFER = new FastThreadLocal<LinkedBuffer>() {
+        @Override
+        protected LinkedBuffer initialValue() {
+            return LinkedBuffer.allocate(8 * 1024);
+        }
+    };
+
+    //direct buffer 没有底层数组时，按块读进这块线程私有的缓冲区
+    private static final FastThreadLocal<LinkedBuffer> READ_BUFFER = new FastThreadLocal<LinkedBuffer>() {
+        @Override
+        protected LinkedBuffer initialValue() {
+            return LinkedBuffer.allocate(8 * 1024);
+        }
+    };
+
+    private static final FastThreadLocal<ByteBufOutput> OUTPUT = new FastThreadLocal<ByteBufOutput>() {
+        @Override
+        protected ByteBufOutput initialValue() {
+            return new ByteBufOutput();
+        }
+    };
+
+    @Override
+    public byte getId() {
+        return SerializerFactory.PROTOSTUFF;
+    }
+
+    @Override
+    public String getName() {
+        return "protostuff";
+    }
+
+    @Override
+    public void serialize(Object obj, ByteBuf out) throws IOException {
+        ByteBufOutput output = OUTPUT.get();
+        output.target = out;
+        try {
+            writeTo(obj, output, WRITE_BUFFER.get());
+        } finally {
+            output.target = null;
+        }
+    }
+
+    @Override
+    public Object deserialize(ByteBuf in, int length, Class<?> type) throws IOException {
+        int start = in.readerIndex();
+        Object obj;
+        if (in.hasArray()) {
+            obj = mergeFrom(in.array(), in.arrayOffset() + start, length, type);
+        } else {
+            obj = mergeFrom(new ByteBufInputStream(in, length), type, READ_BUFFER.get());
+        }
+        in.readerIndex(start + length);
+        return obj;
+    }
+
+    protected void writeTo(Object obj, OutputStream out, LinkedBuffer buffer) throws IOException {
+        SerializationUtil.serialize(obj, out, buffer);
+    }
+
+    protected Object mergeFrom(byte[] data, int offset, int length, Class<?> type) throws IOException {
+        return SerializationUtil.deserialize(data, offset, length, type);
+    }
+
+    protected Object mergeFrom(ByteBufInputStream in, Class<?> type, LinkedBuffer buffer) throws IOException {
+        return SerializationUtil.deserialize(in, type, buffer);
+    }
+
+    private static final class ByteBufOutput extends OutputStream {
+        private ByteBuf target;
+
+        @Override
+        public void write(int b) {
+            target.writeByte(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            target.writeBytes(b, off, len);
+        }
+    }
+}
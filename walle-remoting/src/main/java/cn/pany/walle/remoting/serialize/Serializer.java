@@ -0,0 +1,59 @@
+/*
+ * Copyright 2018-2019 Pany Young.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.pany.walle.remoting.serialize;
+
+import io.netty.buffer.ByteBuf;
+
+import java.io.IOException;
+
+/**
+ * Codec of message bodies, chosen per message by the serializer id in the frame header.
+ * <p>
+ * Extra codecs are picked up by {@link java.util.ServiceLoader} from
+ * {@code META-INF/services/cn.pany.walle.remoting.serialize.Serializer}, or registered with
+ * {@link SerializerFactory#register}. Both ends must have a codec, and a service or reference on each end
+ * must be configured with it, before it is used; which ones a peer accepts is exchanged at login.
+ */
+public interface Serializer {
+
+    /**
+     * Id carried in the frame header, from 1 to 31. Ids below 16 are kept for built-in codecs.
+     */
+    byte getId();
+
+    /**
+     * Name used in configuration, e.g. {@code serializer="protostuff"}.
+     */
+    String getName();
+
+    /**
+     * Write the object at the writer index of {@code out}.
+     */
+    void serialize(Object obj, ByteBuf out) throws IOException;
+
+    /**
+     * Read an object of {@code type} from the next {@code length} readable bytes of {@code in},
+     * leaving the reader index after them.
+     */
+    Object deserialize(ByteBuf in, int length, Class<?> type) throws IOException;
+
+    /**
+     * Called for each service interface exported or referenced with this codec. A codec that creates
+     * objects of the classes named in the stream should only create those the interface can carry.
+     */
+    default void allowTypes(Class<?> serviceInterface) {
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2018-2019 Pany Young.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.pany.walle.remoting.serialize;
+
+import io.netty.util.AttributeKey;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.ServiceLoader;
+
+/**
+ * Registry of the {@link Serializer}s known to this process, by id and by name.
+ * <p>
+ * Id 0 in a header means the default codec, protostuff, so frames of older peers decode as before.
+ * <p>
+ * Registering a codec only makes it known. Apart from protostuff a codec is only offered at login, and
+ * only accepted from a peer, once a service or reference configured with it {@link #enable enabled} it.
+ */
+public final class SerializerFactory {
+    private static final Logger log = LoggerFactory.getLogger(SerializerFactory.class);
+
+    public static final byte DEFAULT = 0;
+    public static final byte PROTOSTUFF = 1;
+    public static final byte PROTOSTUFF_GRAPH = 2;
+    public static final byte HESSIAN = 3;
+
+    /**
+     * Ids both ends of a connection accept as a bit mask, agreed at login.
+     * Connections without it only use the default codec.
+     */
+    public static final AttributeKey<Integer> PEER_SERIALIZERS = AttributeKey.valueOf("walle.peerSerializers");
+
+    private static final int MAX_ID = 31;
+
+    //注册时整体替换，读的时候不加锁
+    private static volatile Serializer[] byId = new Serializer[MAX_ID + 1];
+    private static volatile Map<String, Serializer> byName = new HashMap<>();
+    //服务或引用配置过的序列化方式，按位表示；protostuff 一直可用
+    private static volatile int enabled = 1 << PROTOSTUFF;
+
+    static {
+        register(new ProtostuffSerializer());
+        register(new ProtostuffGraphSerializer());
+        register(new HessianSerializer());
+        for (Serializer serializer : ServiceLoader.load(Serializer.class)) {
+            register(serializer);
+        }
+    }
+
+    private SerializerFactory() {
+    }
+
+    public static synchronized void register(Serializer serializer) {
+        int id = serializer.getId();
+        if (id <= DEFAULT || id > MAX_ID) {
+            throw new IllegalArgumentException("serializer id must be between 1 and " + MAX_ID + ", but " + serializer.getName() + " has " + id);
+        }
+        Serializer old = byId[id];
+        if (old != null && old.getClass() != serializer.getClass()) {
+            throw new IllegalArgumentException("serializer id " + id + " is taken by " + old.getName());
+        }
+        Serializer[] ids = Arrays.copyOf(byId, byId.length);
+        ids[id] = serializer;
+        Map<String, Serializer> names = new HashMap<>(byName);
+        names.put(serializer.getName(), serializer);
+        byId = ids;
+        byName = names;
+        log.info("register serializer [{}] with id {}", serializer.getName(), id);
+    }
+
+    /**
+     * The serializer of a header id, null if this process does not have it.
+     */
+    public static Serializer get(byte id) {
+        if (id == DEFAULT) {
+            return byId[PROTOSTUFF];
+        }
+        return id > 0 && id <= MAX_ID ? byId[id] : null;
+    }
+
+    /**
+     * Id of the serializer configured by name, {@link #DEFAULT} for an empty name.
+     */
+    public static byte idOf(String name) {
+        if (name == null || name.trim().isEmpty()) {
+            return DEFAULT;
+        }
+        Serializer serializer = byName.get(name.trim());
+        if (serializer == null) {
+            throw new IllegalArgumentException("unknown serializer [" + name + "], known are " + byName.keySet());
+        }
+        return serializer.getId();
+    }
+
+    /**
+     * Accept the codec for a service exported or referenced with it, the codec may restrict what it
+     * decodes to the types of {@code serviceType}.
+     */
+    public static synchronized void enable(byte id, Class<?> serviceType) {
+        if (id == DEFAULT) {
+            return;
+        }
+        Serializer serializer = get(id);
+        if (serializer == null) {
+            throw new IllegalArgumentException("unknown serializer id " + id);
+        }
+        if (serviceType != null) {
+            serializer.allowTypes(serviceType);
+        }
+        enabled |= 1 << id;
+    }
+
+    /**
+     * Ids of the enabled serializers as a bit mask, sent at login.
+     */
+    public static int supported() {
+        return enabled;
+    }
+
+    /**
+     * Whether a peer that announced {@code mask} can decode {@code id}.
+     */
+    public static boolean isSupported(int mask, byte id) {
+        return id == DEFAULT || (id > 0 && id <= MAX_ID && (mask & (1 << id)) != 0);
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2018-2019 Pany Young.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.pany.walle.remoting.server;
+
+/**
+ * Where the server runs service methods.
+ */
+public enum DispatchMode {
+    //直接在 IO 线程执行，只适合很快且不阻塞的方法
+    DIRECT,
+    //有界的共享线程池
+    POOL,
+    //work-stealing 的 ForkJoinPool
+    FORK_JOIN;
+
+    public static DispatchMode of(String name) {
+        String mode = name.trim().toUpperCase();
+        return "FORKJOIN".equals(mode) ? FORK_JOIN : valueOf(mode);
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2018-2019 Pany Young.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.pany.walle.remoting.server;
+
+/**
+ * Threading model of the server side request dispatch.
+ */
+public class DispatcherConfig {
+
+    private static final int DEFAULT_POOL_THREADS = 200;
+
+    private DispatchMode mode = DispatchMode.POOL;
+    //0 表示按模式取默认值：POOL 200，FORK_JOIN 为 CPU 核数
+    private int threads;
+    //等待执行的请求上限，超出按 rejectPolicy 处理
+    private int queueSize = 1024;
+    private RejectPolicy rejectPolicy = RejectPolicy.ERROR;
+
+    public int resolveThreads() {
+        if (threads > 0) {
+            return threads;
+        }
+        return mode == DispatchMode.FORK_JOIN ? Runtime.getRuntime().availableProcessors() : DEFAULT_POOL_THREADS;
+    }
+
+    public DispatchMode getMode() {
+        return mode;
+    }
+
+    public void setMode(DispatchMode mode) {
+        this.mode = mode;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    public void setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+    public RejectPolicy getRejectPolicy() {
+        return rejectPolicy;
+    }
+
+    public void setRejectPolicy(RejectPolicy rejectPolicy) {
+        this.rejectPolicy = rejectPolicy;
+    }
+}
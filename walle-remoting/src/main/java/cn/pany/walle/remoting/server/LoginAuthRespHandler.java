@@ -17,18 +17,20 @@ package cn.pany.walle.remoting.server;
 
 
 import cn.pany.walle.common.protocol.MessageType;
+import cn.pany.walle.remoting.codec.FrameChunkEncoder;
+import cn.pany.walle.remoting.codec.WalleMessageDecoder;
+import cn.pany.walle.remoting.codec.WalleMessageEncoder;
 import cn.pany.walle.remoting.protocol.Header;
 import cn.pany.walle.remoting.protocol.LoginBody;
+import cn.pany.walle.remoting.protocol.WalleBatch;
 import cn.pany.walle.remoting.protocol.WalleMessage;
+import cn.pany.walle.remoting.serialize.SerializerFactory;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
-import lombok.extern.slf4j.Slf4j;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author pany
@@ -38,64 +40,65 @@ import java.util.concurrent.ConcurrentHashMap;
 public class LoginAuthRespHandler extends ChannelInboundHandlerAdapter {
     private final static Logger log = LoggerFactory.getLogger(LoginAuthRespHandler.class);
 
-    private Map<String, Boolean> nodeCheck = new ConcurrentHashMap<String, Boolean>();
-
 //    private String[] whiteList = {"127.0.0.1", "192.168.3.8", "192.168.96.173"};
 
+    private final int compressThreshold;
+
+    public LoginAuthRespHandler(int compressThreshold) {
+        this.compressThreshold = compressThreshold;
+    }
+
+    /**
+     * Answer the login of a client with the ids of the exported methods and the frame version both ends support.
+     * A client may open several connections, each of them logs in on its own.
+     */
     @Override
     public void channelRead(ChannelHandlerContext ctx, Object msg)
             throws Exception {
         WalleMessage message = (WalleMessage) msg;
         if (message.getHeader() != null && message.getHeader().getType() == MessageType.LOGIN_REQ) {
-            String nodeIndex = ctx.channel().remoteAddress().toString();
-            WalleMessage loginResp = null;
-            //重复登录，拒绝
-            if (nodeCheck.containsKey(nodeIndex)) {
-                loginResp = buildResponse((byte) -1);
-            } else {
-                InetSocketAddress address = (InetSocketAddress) ctx.channel().remoteAddress();
-                String ip = address.getAddress().getHostAddress();
-                boolean isOK = true;
-//                for (String WIP : whiteList) {
-//                    if (WIP.equals(ip)) {
-//                        isOK = true;
-//                    }
-//                }
-                loginResp = isOK ? buildResponse((byte) 0) : buildResponse((byte) -1);
-//				loginResp=buildResponse((byte)0);
-                if (isOK) nodeCheck.put(ip, true);
-
-                log.info("The login response is :" + loginResp + " body[" + loginResp.getBody() + "]");
-                ctx.writeAndFlush(loginResp);
+            LoginBody loginReq = (LoginBody) message.getBody();
+            int version = Math.min(loginReq == null ? 1 : Math.max(1, loginReq.getProtocolVersion()), WalleMessageEncoder.LATEST_VERSION);
+            //只收双方都启用的序列化方式，商定的结果回给客户端，两边按同一份来
+            int serializers = loginReq == null ? 0 : loginReq.getSerializers() & SerializerFactory.supported();
+            InetSocketAddress address = (InetSocketAddress) ctx.channel().localAddress();
+            WalleMessage loginResp = buildResponse((byte) 0, address, version, serializers);
+            if (log.isDebugEnabled()) {
+                log.debug("The login response is :" + loginResp + " body[" + loginResp.getBody() + "]");
+            }
+            //在 IO 线程里 write 会立即编码，登录响应还是旧格式，之后的帧才用新版本
+            ctx.writeAndFlush(loginResp);
+            WalleMessageEncoder encoder = ctx.pipeline().get(WalleMessageEncoder.class);
+            encoder.useVersion(version);
+            ctx.pipeline().get(FrameChunkEncoder.class).useVersion(version);
+            //只有 v2 帧能标记压缩
+            if (version > 1 && (loginReq.getCompressions() & WalleMessageEncoder.COMPRESSION_SNAPPY) != 0) {
+                encoder.useCompression(compressThreshold);
             }
+            ctx.pipeline().get(WalleMessageDecoder.class).useSerializers(serializers);
+            //没登录或没声明的老客户端解不了批量响应
+            WalleBatch.peerFeatures(ctx.channel(), loginReq == null ? 0 : loginReq.getFeatures());
         } else {
             ctx.fireChannelRead(msg);
         }
     }
 
-    private WalleMessage buildResponse(byte b) {
+    private WalleMessage buildResponse(byte b, InetSocketAddress address, int version, int serializers) {
         WalleMessage message = new WalleMessage();
         Header header = new Header();
         header.setType(MessageType.LOGIN_RESP);
         message.setHeader(header);
 
-//		message.setBody(b);
-
         LoginBody loginBody = new LoginBody();
         loginBody.setIsOk(b);
-        loginBody.setPort(1);
-        loginBody.setIp("123");
+        loginBody.setPort(address.getPort());
+        loginBody.setIp(address.getAddress().getHostAddress());
+        loginBody.setMethodIdTable(ServiceInvokerTable.methodIdTable());
+        loginBody.setProtocolVersion(version);
+        loginBody.setSerializers(serializers);
+        loginBody.setCompressions(WalleMessageEncoder.COMPRESSION_SNAPPY);
+        loginBody.setFeatures(WalleBatch.FEATURE);
         message.setBody(loginBody);
         return message;
     }
-
-    @Override
-    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause)
-            throws Exception {
-        nodeCheck.remove(ctx.channel().remoteAddress().toString());
-        ctx.close();
-        ctx.fireExceptionCaught(cause);
-    }
-
-
 }
@@ -0,0 +1,31 @@
+/*
+ * Copyright 2018-2019 Pany Young.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.pany.walle.remoting.server;
+
+/**
+ * What the server does with a request when the dispatcher is full.
+ */
+public enum RejectPolicy {
+    //立即给客户端回一个服务端繁忙的错误
+    ERROR,
+    //在 IO 线程里执行，读被阻塞，压力传回客户端
+    CALLER_RUNS;
+
+    public static RejectPolicy of(String name) {
+        String policy = name.trim().toUpperCase();
+        return "CALLERRUNS".equals(policy) ? CALLER_RUNS : valueOf(policy);
+    }
+}
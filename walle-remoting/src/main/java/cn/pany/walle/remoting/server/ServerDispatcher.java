@@ -0,0 +1,139 @@
+/*
+ * Copyright 2018-2019 Pany Young.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.pany.walle.remoting.server;
+
+import cn.pany.walle.common.utils.NamedThreadFactory;
+import cn.pany.walle.remoting.exception.WalleRpcException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the requests of every connection of a {@link WalleServer}, in the mode chosen by {@link DispatcherConfig}.
+ */
+public class ServerDispatcher {
+    private static final Logger log = LoggerFactory.getLogger(ServerDispatcher.class);
+
+    private final DispatcherConfig config;
+    //DIRECT 模式下为空
+    private final ExecutorService executor;
+    //ForkJoinPool 的队列没有上限，自己计数
+    private final AtomicInteger pending = new AtomicInteger();
+    private final int pendingLimit;
+
+    public ServerDispatcher(DispatcherConfig config) {
+        this.config = config;
+        int threads = config.resolveThreads();
+        this.pendingLimit = threads + config.getQueueSize();
+        switch (config.getMode()) {
+            case DIRECT:
+                executor = null;
+                break;
+            case FORK_JOIN:
+                executor = new ForkJoinPool(threads, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+                break;
+            default:
+                BlockingQueue<Runnable> queue = config.getQueueSize() > 0
+                        ? new ArrayBlockingQueue<>(config.getQueueSize()) : new SynchronousQueue<>();
+                ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, queue,
+                        new NamedThreadFactory("WalleServerBiz"));
+                pool.allowCoreThreadTimeOut(true);
+                executor = pool;
+                break;
+        }
+        log.info("server dispatcher mode:[{}], threads:[{}], queueSize:[{}]", config.getMode(), threads, config.getQueueSize());
+    }
+
+    /**
+     * Work run by the dispatcher, told why when it is turned away.
+     */
+    public interface Task extends Runnable {
+        void reject(Throwable cause);
+    }
+
+    public void dispatch(Task task) {
+        if (executor == null) {
+            task.run();
+            return;
+        }
+        if (offer(task)) {
+            return;
+        }
+        if (config.getRejectPolicy() == RejectPolicy.CALLER_RUNS && !executor.isShutdown()) {
+            task.run();
+        } else {
+            task.reject(new WalleRpcException(WalleRpcException.SERVER_BUSY_EXCEPTION,
+                    "server is busy, request rejected by dispatcher"));
+        }
+    }
+
+    /**
+     * Hand the task to a dispatcher thread if one can take it now. Unlike {@link #dispatch(Task)} it never
+     * runs the task on the calling thread; false when the pool is full or shut down, or in DIRECT mode.
+     */
+    public boolean offer(Runnable task) {
+        if (executor == null) {
+            return false;
+        }
+        try {
+            if (config.getMode() == DispatchMode.FORK_JOIN) {
+                if (pending.incrementAndGet() > pendingLimit) {
+                    pending.decrementAndGet();
+                    throw new RejectedExecutionException("dispatcher queue is full");
+                }
+                try {
+                    executor.execute(() -> {
+                        try {
+                            task.run();
+                        } finally {
+                            pending.decrementAndGet();
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    pending.decrementAndGet();
+                    throw e;
+                }
+            } else {
+                executor.execute(task);
+            }
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * True when requests run on the IO thread that read them.
+     */
+    public boolean isDirect() {
+        return executor == null;
+    }
+
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2018-2019 Pany Young.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.pany.walle.remoting.server;
+
+import cn.pany.walle.common.utils.NamedThreadFactory;
+import cn.pany.walle.remoting.protocol.InboundStream;
+import cn.pany.walle.remoting.protocol.OutboundStream;
+import cn.pany.walle.remoting.transport.TransportConfig;
+import io.netty.channel.Channel;
+
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends the values of an {@link Iterator} returned by a service method, pumped on the server's
+ * {@link ServerDispatcher} threads, or on a pool of its own when the dispatcher runs requests on the
+ * IO threads. The iterator may block, so it is never pumped on an IO thread: when no thread is free
+ * the pump waits for the next credit or a short timer instead of following the reject policy.
+ * <p>
+ * For a bidirectional call the values the client uploads stay readable until this stream is over,
+ * then the upload is closed too.
+ */
+final class ServerStream extends OutboundStream {
+
+    //DIRECT 模式下没有业务线程池，流用这里的线程
+    private static final ExecutorService DIRECT_EXECUTOR = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+            new SynchronousQueue<>(), new NamedThreadFactory("WalleServerStream", true));
+
+    private final ServerDispatcher dispatcher;
+    //双向流里客户端上传的那一路，可能为空
+    private final InboundStream<?> inbound;
+
+    private ServerStream(Channel channel, long streamId, byte serializer, Iterator<?> values,
+                         TransportConfig transportConfig, ServerDispatcher dispatcher, InboundStream<?> inbound) {
+        super(channel, streamId, serializer, values, transportConfig);
+        this.dispatcher = dispatcher;
+        this.inbound = inbound;
+    }
+
+    static void start(Channel channel, long streamId, byte serializer, Iterator<?> values,
+                      TransportConfig transportConfig, ServerDispatcher dispatcher, InboundStream<?> inbound) {
+        new ServerStream(channel, streamId, serializer, values, transportConfig, dispatcher, inbound).start();
+    }
+
+    @Override
+    protected void execute() {
+        if (dispatcher.isDirect()) {
+            try {
+                DIRECT_EXECUTOR.execute(this);
+            } catch (RejectedExecutionException e) {
+                retryLater();
+            }
+        } else if (!dispatcher.offer(this)) {
+            retryLater();
+        }
+    }
+
+    @Override
+    protected void closed() {
+        if (inbound != null) {
+            inbound.close();
+        }
+    }
+}
@@ -0,0 +1,318 @@
+/*
+ * Copyright 2018-2019 Pany Young.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.pany.walle.remoting.server;
+
+import cn.pany.walle.common.utils.InvokerUtil;
+import cn.pany.walle.remoting.protocol.MethodIdTable;
+import cn.pany.walle.remoting.serialize.SerializerFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dispatch table of the exported services, built when a service is registered.
+ * <p>
+ * Every method of the exported interface is resolved once into a {@link MethodHandle} bound to the bean,
+ * so a request only costs two hash lookups and a direct call. Other public methods of the bean, e.g.
+ * setters or those a Spring proxy adds, can not be called remotely. The table is immutable; registering
+ * a service publishes a new copy.
+ * <p>
+ * Each method also gets a numeric id, stable for the life of the process, which clients learn
+ * from the {@link MethodIdTable} sent at login and use instead of the method's names.
+ */
+public final class ServiceInvokerTable {
+    private static final Logger log = LoggerFactory.getLogger(ServiceInvokerTable.class);
+
+    private static final MethodType INVOKER_TYPE = MethodType.methodType(Object.class, Object[].class);
+    private static final Class<?>[] NO_TYPES = new Class<?>[0];
+
+    //className -> version -> service
+    private static volatile Map<String, Map<String, ServiceInvoker>> services = Collections.emptyMap();
+    //下标就是方法 id，0 不用
+    private static volatile MethodInvoker[] byId = new MethodInvoker[1];
+    private static volatile MethodIdTable methodIdTable = new MethodIdTable();
+    //同一个服务重新注册时沿用原来的 id
+    private static final Map<String, Integer> ids = new HashMap<>();
+
+    private ServiceInvokerTable() {
+    }
+
+    /**
+     * Register a service bean, also keeps {@link WalleServerHandler#handlerMap} in step.
+     */
+    public static void register(String interfaceName, String version, Object serviceBean) {
+        register(interfaceName, version, serviceBean, SerializerFactory.DEFAULT);
+    }
+
+    /**
+     * Register a service bean whose clients should use the given serializer when they have it.
+     */
+    public static synchronized void register(String interfaceName, String version, Object serviceBean, byte serializer) {
+        ServiceInvoker invoker = new ServiceInvoker(interfaceName, version, serviceBean, serializer);
+        SerializerFactory.enable(serializer, invoker.type);
+        assignIds(interfaceName, version, invoker);
+        Map<String, Map<String, ServiceInvoker>> copy = new HashMap<>(services);
+        Map<String, ServiceInvoker> versions = new HashMap<>();
+        Map<String, ServiceInvoker> old = copy.get(interfaceName);
+        if (old != null) {
+            versions.putAll(old);
+        }
+        versions.put(versionKey(version), invoker);
+        copy.put(interfaceName, Collections.unmodifiableMap(versions));
+        services = Collections.unmodifiableMap(copy);
+        WalleServerHandler.handlerMap.put(InvokerUtil.formatInvokerUrl(interfaceName, null, version), serviceBean);
+    }
+
+    private static void assignIds(String interfaceName, String version, ServiceInvoker invoker) {
+        MethodInvoker[] table = byId;
+        List<MethodInvoker> added = new ArrayList<>();
+        for (MethodInvoker[] overloads : invoker.methods.values()) {
+            for (MethodInvoker method : overloads) {
+                String key = InvokerUtil.formatInvokerUrl(interfaceName, method.methodName, version)
+                        + Arrays.toString(method.parameterTypes);
+                Integer id = ids.get(key);
+                if (id == null) {
+                    id = table.length + added.size();
+                    ids.put(key, id);
+                }
+                method.id = id;
+                added.add(method);
+            }
+        }
+        int length = table.length;
+        for (MethodInvoker method : added) {
+            length = Math.max(length, method.id + 1);
+        }
+        MethodInvoker[] copy = Arrays.copyOf(table, length);
+        for (MethodInvoker method : added) {
+            copy[method.id] = method;
+        }
+        MethodIdTable methods = new MethodIdTable();
+        for (int id = 1; id < copy.length; id++) {
+            MethodInvoker method = copy[id];
+            if (method != null) {
+                methods.add(id, method.className, method.version, method.methodName, method.parameterTypes, method.serializer);
+            }
+        }
+        byId = copy;
+        methodIdTable = methods;
+    }
+
+    /**
+     * The method registered under the id, null if there is none.
+     */
+    public static MethodInvoker lookup(int methodId) {
+        MethodInvoker[] table = byId;
+        return methodId > 0 && methodId < table.length ? table[methodId] : null;
+    }
+
+    /**
+     * Ids of every registered method, sent to clients at login.
+     */
+    public static MethodIdTable methodIdTable() {
+        return methodIdTable;
+    }
+
+    public static ServiceInvoker lookup(String className, String version) {
+        Map<String, ServiceInvoker> versions = services.get(className);
+        ServiceInvoker invoker = versions == null ? null : versions.get(versionKey(version));
+        if (invoker != null) {
+            return invoker;
+        }
+        //兼容直接往 handlerMap 里放 bean 的老用法，第一次调用时补进表里
+        Object serviceBean = WalleServerHandler.handlerMap.get(InvokerUtil.formatInvokerUrl(className, null, version));
+        if (serviceBean == null) {
+            return null;
+        }
+        register(className, version, serviceBean);
+        return lookup(className, version);
+    }
+
+    private static String versionKey(String version) {
+        return version == null ? "" : version;
+    }
+
+    /**
+     * Invokers of one service bean, grouped by method name.
+     */
+    public static final class ServiceInvoker {
+        private final Object serviceBean;
+        //导出的接口
+        private final Class<?> type;
+        private final Map<String, MethodInvoker[]> methods;
+
+        ServiceInvoker(String interfaceName, String version, Object serviceBean, byte serializer) {
+            this.serviceBean = serviceBean;
+            Map<String, List<MethodInvoker>> byName = new HashMap<>();
+            this.type = exportedType(interfaceName, serviceBean);
+            //只导出接口上的方法，调用按接口方法虚分派到实现类的覆盖
+            for (Method method : type.getMethods()) {
+                if (Modifier.isStatic(method.getModifiers()) || method.getDeclaringClass() == Object.class) {
+                    continue;
+                }
+                List<MethodInvoker> overloads = byName.computeIfAbsent(method.getName(), k -> new ArrayList<>());
+                int same = indexOf(overloads, method.getParameterTypes());
+                //协变返回类型会多出桥接方法，留真实的那个
+                if (same >= 0) {
+                    if (method.isBridge()) {
+                        continue;
+                    }
+                    overloads.remove(same);
+                }
+                MethodInvoker invoker = MethodInvoker.of(interfaceName, version, serializer, serviceBean, method);
+                if (invoker != null) {
+                    overloads.add(invoker);
+                }
+            }
+            Map<String, MethodInvoker[]> methods = new HashMap<>();
+            for (Map.Entry<String, List<MethodInvoker>> entry : byName.entrySet()) {
+                methods.put(entry.getKey(), entry.getValue().toArray(new MethodInvoker[0]));
+            }
+            this.methods = Collections.unmodifiableMap(methods);
+        }
+
+        public Object getServiceBean() {
+            return serviceBean;
+        }
+
+        //按名字找 bean 实现的接口，找不到再用 bean 的类加载器加载
+        private static Class<?> exportedType(String interfaceName, Object serviceBean) {
+            for (Class<?> type = serviceBean.getClass(); type != null; type = type.getSuperclass()) {
+                Class<?> found = findInterface(type.getInterfaces(), interfaceName);
+                if (found != null) {
+                    return found;
+                }
+            }
+            Class<?> type;
+            try {
+                type = Class.forName(interfaceName, false, serviceBean.getClass().getClassLoader());
+            } catch (ClassNotFoundException e) {
+                throw new IllegalArgumentException("exported type " + interfaceName + " not found", e);
+            }
+            if (!type.isInstance(serviceBean)) {
+                throw new IllegalArgumentException("service bean " + serviceBean.getClass().getName()
+                        + " is not a " + interfaceName);
+            }
+            return type;
+        }
+
+        private static Class<?> findInterface(Class<?>[] interfaces, String interfaceName) {
+            for (Class<?> type : interfaces) {
+                if (type.getName().equals(interfaceName)) {
+                    return type;
+                }
+                Class<?> found = findInterface(type.getInterfaces(), interfaceName);
+                if (found != null) {
+                    return found;
+                }
+            }
+            return null;
+        }
+
+        public MethodInvoker find(String methodName, Class<?>[] parameterTypes) {
+            MethodInvoker[] overloads = methods.get(methodName);
+            if (overloads == null) {
+                return null;
+            }
+            Class<?>[] types = parameterTypes == null ? NO_TYPES : parameterTypes;
+            for (MethodInvoker invoker : overloads) {
+                if (Arrays.equals(invoker.parameterTypes, types)) {
+                    return invoker;
+                }
+            }
+            return null;
+        }
+
+        private static int indexOf(List<MethodInvoker> overloads, Class<?>[] parameterTypes) {
+            for (int i = 0; i < overloads.size(); i++) {
+                if (Arrays.equals(overloads.get(i).parameterTypes, parameterTypes)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * One service method, a handle of type {@code (Object[])Object} with the bean already bound.
+     */
+    public static final class MethodInvoker {
+        private final String className;
+        private final String version;
+        private final String methodName;
+        private final Class<?>[] parameterTypes;
+        private final byte serializer;
+        private final MethodHandle handle;
+        //注册时分配，随表一起发布
+        private int id;
+
+        private MethodInvoker(String className, String version, String methodName, Class<?>[] parameterTypes,
+                              byte serializer, MethodHandle handle) {
+            this.className = className;
+            this.version = version;
+            this.methodName = methodName;
+            this.parameterTypes = parameterTypes;
+            this.serializer = serializer;
+            this.handle = handle;
+        }
+
+        static MethodInvoker of(String className, String version, byte serializer, Object serviceBean, Method method) {
+            try {
+                //接口不是 public 时也能调到
+                if (!method.isAccessible()) {
+                    method.setAccessible(true);
+                }
+                Class<?>[] parameterTypes = method.getParameterTypes();
+                MethodHandle handle = MethodHandles.lookup().unreflect(method)
+                        .bindTo(serviceBean)
+                        .asSpreader(Object[].class, parameterTypes.length)
+                        .asType(INVOKER_TYPE);
+                return new MethodInvoker(className, version, method.getName(), parameterTypes, serializer, handle);
+            } catch (IllegalAccessException | SecurityException e) {
+                log.warn("method {} of {} can not be exported", method, serviceBean.getClass().getName(), e);
+                return null;
+            }
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        /**
+         * Call the method, exceptions thrown by it are wrapped in {@link InvocationTargetException}
+         * like reflective calls do.
+         */
+        public Object invoke(Object[] parameters) throws InvocationTargetException {
+            try {
+                return (Object) handle.invokeExact(parameters);
+            } catch (Throwable t) {
+                throw new InvocationTargetException(t);
+            }
+        }
+    }
+}
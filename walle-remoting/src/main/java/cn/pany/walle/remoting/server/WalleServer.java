@@ -16,23 +16,28 @@
 package cn.pany.walle.remoting.server;
 
 
+import cn.pany.walle.remoting.codec.FrameChunkEncoder;
 import cn.pany.walle.remoting.codec.WalleMessageDecoder;
 import cn.pany.walle.remoting.codec.WalleMessageEncoder;
 import cn.pany.walle.remoting.registry.WalleRegistry;
+import cn.pany.walle.remoting.transport.TransportConfig;
+import cn.pany.walle.remoting.transport.TransportResources;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
 import io.netty.handler.timeout.ReadTimeoutHandler;
+import io.netty.util.concurrent.GlobalEventExecutor;
 import io.netty.util.internal.ThrowableUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * @author pany
@@ -50,6 +55,11 @@ public class WalleServer {
 
     private WalleRegistry walleRegistry;
 
+    private TransportConfig transportConfig = new TransportConfig();
+
+    private DispatcherConfig dispatcherConfig = new DispatcherConfig();
+    private ServerDispatcher dispatcher;
+
 
 
     //限流--信号量和计数器
@@ -64,22 +74,31 @@ public class WalleServer {
     protected ChannelFuture future;
     EventLoopGroup bossGroup;
     EventLoopGroup workerGroup;
+    private final AtomicBoolean released = new AtomicBoolean();
+    //已接入的连接，关闭时一起关掉
+    private final ChannelGroup childChannels = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
+
     protected void bind() {
-        bossGroup = new NioEventLoopGroup();
-        workerGroup = new NioEventLoopGroup();
+        //共享的线程组，关闭时只归还引用
+        bossGroup = TransportResources.acquire(TransportResources.SERVER_BOSS, transportConfig);
+        workerGroup = TransportResources.acquire(TransportResources.SERVER_WORKER, transportConfig);
+        dispatcher = new ServerDispatcher(dispatcherConfig);
         ServerBootstrap b = new ServerBootstrap();
-        b.group(bossGroup, workerGroup).channel(NioServerSocketChannel.class)
+        transportConfig.applyServer(b);
+        b.group(bossGroup, workerGroup).channel(transportConfig.serverSocketChannelClass())
 //                .option(ChannelOption.SO_BACKLOG, 100)
 //                .handler(new LoggingHandler(LogLevel.INFO))
                 .childHandler(new ChannelInitializer<Channel>() {
                     @Override
                     protected void initChannel(Channel ch) throws Exception {
-                        ch.pipeline().addLast(new WalleMessageDecoder(1024 * 1024, 4, 4))
+                        childChannels.add(ch);
+                        ch.pipeline().addLast(new WalleMessageDecoder(1024 * 1024, 4, 4, transportConfig.isLazyDecode()))
+                                .addLast("FrameChunkEncoder", new FrameChunkEncoder())
                                 .addLast("MessageEncoder", new WalleMessageEncoder())
                                 .addLast("ReadTimeoutHandler", new ReadTimeoutHandler(50))
-//                        ch.pipeline().addLast(new LoginAuthRespHandler());
+                                .addLast("LoginAuthHandler", new LoginAuthRespHandler(transportConfig.getCompressThreshold()))
                                 .addLast("HeartBeatHandler", new HeartBeatRespHandler())
-                                .addLast("WalleServerHandler", new WalleServerHandler());
+                                .addLast("WalleServerHandler", new WalleServerHandler(transportConfig, dispatcher));
                     }
                 });
 
@@ -96,15 +115,28 @@ public class WalleServer {
 //            e.printStackTrace();
             log.error(ThrowableUtil.stackTraceToString(e));
         } finally {
-            workerGroup.shutdownGracefully();
-            bossGroup.shutdownGracefully();
-            log.info("workerGroup and bossGroup shutdownGracefully");
+            releaseGroups();
         }
     }
 
     public void shutdown(){
-        workerGroup.shutdownGracefully();
-        bossGroup.shutdownGracefully();
+        //线程组可能还被其他 server/client 使用，这里要自己关闭监听端口
+        if (future != null) {
+            future.channel().close().syncUninterruptibly();
+        }
+        childChannels.close().awaitUninterruptibly();
+        releaseGroups();
+    }
+
+    private void releaseGroups() {
+        if (released.compareAndSet(false, true)) {
+            TransportResources.release(TransportResources.SERVER_WORKER, transportConfig);
+            TransportResources.release(TransportResources.SERVER_BOSS, transportConfig);
+            log.info("workerGroup and bossGroup released");
+            if (dispatcher != null) {
+                dispatcher.shutdown();
+            }
+        }
     }
 
     public String getServerAddress() {
@@ -123,6 +155,22 @@ public class WalleServer {
         this.port = port;
     }
 
+    public TransportConfig getTransportConfig() {
+        return transportConfig;
+    }
+
+    public void setTransportConfig(TransportConfig transportConfig) {
+        this.transportConfig = transportConfig;
+    }
+
+    public DispatcherConfig getDispatcherConfig() {
+        return dispatcherConfig;
+    }
+
+    public void setDispatcherConfig(DispatcherConfig dispatcherConfig) {
+        this.dispatcherConfig = dispatcherConfig;
+    }
+
     public WalleRegistry getWalleRegistry() {
         return walleRegistry;
     }
@@ -15,26 +15,35 @@
  */
 package cn.pany.walle.remoting.server;
 
+import cn.pany.walle.common.constants.WalleConstant;
 import cn.pany.walle.common.protocol.MessageType;
-import cn.pany.walle.common.utils.InvokerUtil;
+import cn.pany.walle.remoting.exception.WalleRpcException;
 import cn.pany.walle.remoting.protocol.Header;
+import cn.pany.walle.remoting.protocol.InboundStream;
+import cn.pany.walle.remoting.protocol.LazyBody;
+import cn.pany.walle.remoting.protocol.OutboundStream;
+import cn.pany.walle.remoting.protocol.StreamFrame;
+import cn.pany.walle.remoting.protocol.WalleBatch;
 import cn.pany.walle.remoting.protocol.WalleBizRequest;
 import cn.pany.walle.remoting.protocol.WalleBizResponse;
 import cn.pany.walle.remoting.protocol.WalleMessage;
+import cn.pany.walle.remoting.transport.TransportConfig;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.EncoderException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.BeansException;
-import org.springframework.cglib.reflect.FastClass;
-import org.springframework.cglib.reflect.FastMethod;
 
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import static cn.pany.walle.common.protocol.MessageType.*;
 
@@ -45,11 +54,16 @@ public class WalleServerHandler extends SimpleChannelInboundHandler<WalleMessage
     private final static Logger LOG = LoggerFactory.getLogger(WalleServerHandler.class);
 
 
-    ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(200, 300, 0, TimeUnit.MILLISECONDS,
-            new LinkedBlockingQueue<Runnable>(50));
-
     public static Map<String, Object> handlerMap = new ConcurrentHashMap<>(); // 存放接口名与服务对象之间的映射关系
 
+    private final TransportConfig transportConfig;
+    //整个 server 共用
+    private final ServerDispatcher dispatcher;
+
+    public WalleServerHandler(TransportConfig transportConfig, ServerDispatcher dispatcher) {
+        this.transportConfig = transportConfig;
+        this.dispatcher = dispatcher;
+    }
 
     @Override
     protected void channelRead0(ChannelHandlerContext ctx, WalleMessage msg) throws Exception {
@@ -64,67 +78,208 @@ public class WalleServerHandler extends SimpleChannelInboundHandler<WalleMessage
 //                    processRequestCommand(ctx, cmd);
                     LOG.debug("biz message:"+msg.toString());
 //                    LOG.info("biz message:"+msg.getBody().toString());
-                    threadPoolExecutor.execute(new WalleBizTask(ctx,cmd));
+                    if (StreamFrame.streamParameter(cmd.getHeader()) >= 0) {
+                        openUpload(ctx, cmd);
+                    } else {
+                        dispatcher.dispatch(new WalleBizTask(ctx, cmd, null));
+                    }
+                    break;
+                //单向调用：照常执行，只是不回写；带流参数时上传照常
+                case ONE_WAY:
+                    if (StreamFrame.streamParameter(cmd.getHeader()) >= 0) {
+                        openUpload(ctx, cmd);
+                    } else {
+                        dispatcher.dispatch(new WalleBizTask(ctx, cmd, null));
+                    }
+                    break;
+                case BATCH_REQ:
+                    for (WalleMessage entry : ((WalleBatch) cmd.getBody()).getMessages()) {
+                        dispatcher.dispatch(new WalleBizTask(ctx, entry, null));
+                    }
                     break;
                 case SERVICE_RESP:
 //                    processResponseCommand(ctx, cmd);
                     break;
+                case STREAM_NEXT:
+                case STREAM_END:
+                    if (!InboundStream.received(ctx.channel(), cmd.getHeader().getSessionID(),
+                            cmd.getHeader().getType() == STREAM_END, (StreamFrame) cmd.getBody())) {
+                        //服务方法已经不再读了
+                        LOG.debug("stream [{}] not open on channel [{}]", cmd.getHeader().getSessionID(), ctx.channel());
+                    }
+                    break;
+                case STREAM_CREDIT:
+                    OutboundStream.credit(ctx.channel(), cmd.getHeader().getSessionID(), ((StreamFrame) cmd.getBody()).getCredit());
+                    break;
+                case STREAM_CANCEL:
+                    //客户端放弃了整个调用，两个方向都停
+                    OutboundStream.cancel(ctx.channel(), cmd.getHeader().getSessionID());
+                    InboundStream<?> upload = InboundStream.get(ctx.channel(), cmd.getHeader().getSessionID());
+                    if (upload != null) {
+                        upload.failed(new WalleRpcException(WalleRpcException.CANCELLED_EXCEPTION,
+                                "stream [" + cmd.getHeader().getSessionID() + "] is cancelled by client"));
+                    }
+                    break;
                 default:
                     break;
             }
         }
     }
 
-    public class WalleBizTask implements  Runnable{
+    /**
+     * A request whose {@link Iterator} parameter is uploaded after it: the stream is registered here on the
+     * IO thread, before any of its values can arrive, and handed to the task.
+     */
+    private void openUpload(ChannelHandlerContext ctx, WalleMessage cmd) {
+        Header header = cmd.getHeader();
+        WalleBizTask task;
+        if (dispatcher.isDirect()) {
+            //IO 线程里读上传的流会把自己卡住
+            task = new WalleBizTask(ctx, cmd, null);
+            task.reject(new WalleRpcException(WalleRpcException.FORBIDDEN_EXCEPTION,
+                    "streaming parameters are not supported by a DIRECT dispatcher"));
+            transportConfig.write(ctx.channel(), StreamFrame.cancel(header.getSessionID()));
+            return;
+        }
+        InboundStream<Object> upload = new InboundStream<>(ctx.channel(), header.getSessionID(), header.getSerializer(),
+                transportConfig, WalleConstant.DEFAULT_TIMEOUT);
+        upload.register();
+        task = new WalleBizTask(ctx, cmd, upload);
+        //不能走 CALLER_RUNS：在 IO 线程里读上传的流同样会卡住自己，拒绝时关掉上传让客户端停下
+        if (!dispatcher.offer(task)) {
+            task.reject(new WalleRpcException(WalleRpcException.SERVER_BUSY_EXCEPTION,
+                    "server is busy, request rejected by dispatcher"));
+        }
+    }
+
+    public class WalleBizTask implements ServerDispatcher.Task {
         ChannelHandlerContext channelHandlerContext;
         WalleMessage message;
-        WalleBizTask(ChannelHandlerContext channelHandlerContext,WalleMessage message ){
+        //客户端上传的参数流，没有时为空
+        InboundStream<?> upload;
+        WalleBizTask(ChannelHandlerContext channelHandlerContext,WalleMessage message, InboundStream<?> upload){
             this.channelHandlerContext=channelHandlerContext;
             this.message=message;
+            this.upload=upload;
         }
 
         private Object handle(WalleBizRequest request) throws Exception {
 
             if (request == null)
                 return null;
-            String className = request.getClassName();
-            String invokerUrl= InvokerUtil.formatInvokerUrl(className,null,request.getVersion());;
-
-            Object serviceBean = handlerMap.get(invokerUrl);
-
-            if(serviceBean!=null){
-                Class<?> serviceClass = serviceBean.getClass();
-                String methodName = request.getMethodName();
-                Class<?>[] parameterTypes = request.getParameterTypes();
-                Object[] parameters = request.getParameters();
-
-                FastClass serviceFastClass = FastClass.create(serviceClass);
-                FastMethod serviceFastMethod = serviceFastClass.getMethod(methodName, parameterTypes);
-                Object result = serviceFastMethod.invoke(serviceBean, parameters);
-                return result;
-            }else {
+            if (request.getMethodId() > 0) {
+                ServiceInvokerTable.MethodInvoker invoker = ServiceInvokerTable.lookup(request.getMethodId());
+                if (invoker == null) {
+                    throw new NoSuchMethodException("method id " + request.getMethodId());
+                }
+                return invoker.invoke(request.getParameters());
+            }
+            ServiceInvokerTable.ServiceInvoker service = ServiceInvokerTable.lookup(request.getClassName(), request.getVersion());
+            if (service == null) {
                 return null;
             }
+            ServiceInvokerTable.MethodInvoker invoker = service.find(request.getMethodName(), request.getParameterTypes());
+            if (invoker == null) {
+                throw new NoSuchMethodException(request.getClassName() + "." + request.getMethodName()
+                        + Arrays.toString(request.getParameterTypes()));
+            }
+            return invoker.invoke(request.getParameters());
         }
 
         @Override
         public void run() {
-            WalleMessage messageResponse = buildBizResp();
             WalleBizResponse response = new WalleBizResponse();
             try {
-                WalleBizRequest request = (WalleBizRequest) message.getBody();
+                //开启 lazyDecode 时 body 在这里才反序列化
+                WalleBizRequest request = (WalleBizRequest) LazyBody.resolve(message);
 
                 response.setRequestId(request.getRequestId());
+                if (upload != null) {
+                    request.getParameters()[StreamFrame.streamParameter(message.getHeader())] = upload;
+                }
 
                 Object result = this.handle(request);
 
+                //流式接口：调用方要求流式返回时按它给的额度逐个发送，上传的流等它发完再关
+                if (result instanceof Iterator && StreamFrame.streamsResult(message.getHeader())) {
+                    ServerStream.start(channelHandlerContext.channel(), message.getHeader().getSessionID(),
+                            message.getHeader().getSerializer(), (Iterator<?>) result, transportConfig, dispatcher, upload);
+                    return;
+                }
+                //异步接口：等业务 future 完成后再回写，不占用业务线程
+                if (result instanceof CompletionStage) {
+                    ((CompletionStage<?>) result).whenComplete((value, cause) -> {
+                        if (cause != null) {
+                            response.setError(cause instanceof CompletionException && cause.getCause() != null ? cause.getCause() : cause);
+                        } else {
+                            response.setResult(value);
+                            response.setSuccess(true);
+                        }
+                        writeResponse(response);
+                    });
+                    return;
+                } else if (result instanceof Future) {
+                    result = ((Future<?>) result).get();
+                }
+
                 response.setResult(result);
                 response.setSuccess(true);
+            } catch (ExecutionException t) {
+                response.setError(t.getCause() != null ? t.getCause() : t);
             } catch (Exception t) {
                 response.setError(t);
             }
+            writeResponse(response);
+        }
+
+        /**
+         * Answer the request with an error without running it.
+         */
+        @Override
+        public void reject(Throwable cause) {
+            WalleBizResponse response = new WalleBizResponse();
+            //还没解的 body 不再解，客户端按 sessionID 对应响应
+            if (message.getBody() instanceof LazyBody) {
+                LazyBody.release(message);
+            } else {
+                response.setRequestId(((WalleBizRequest) message.getBody()).getRequestId());
+            }
+            response.setError(cause);
+            writeResponse(response);
+        }
+
+        private void writeResponse(WalleBizResponse response) {
+            //方法没读完的上传让客户端停下
+            if (upload != null) {
+                upload.close();
+            }
+            if (message.getHeader().getType() == ONE_WAY) {
+                if (response.getError() != null) {
+                    LOG.warn("one-way request on channel [{}] failed", channelHandlerContext.channel(), response.getError());
+                }
+                return;
+            }
+            WalleMessage messageResponse = buildBizResp();
+            messageResponse.getHeader().setSessionID(message.getHeader().getSessionID());
+            //用请求的序列化方式回写，对端一定支持
+            messageResponse.getHeader().setSerializer(message.getHeader().getSerializer());
             messageResponse.setBody(response);
-            channelHandlerContext.writeAndFlush(messageResponse);
+            transportConfig.write(channelHandlerContext.channel(), messageResponse).addListener((ChannelFutureListener) future -> {
+                //结果序列化失败时改回一个只带原因的错误，客户端不用等到超时
+                if (!future.isSuccess() && future.cause() instanceof EncoderException
+                        && future.channel().isActive()) {
+                    LOG.warn("encode response of request [{}] failed", response.getRequestId(), future.cause());
+                    WalleBizResponse error = new WalleBizResponse();
+                    error.setRequestId(response.getRequestId());
+                    error.setError(new WalleRpcException(WalleRpcException.SERIALIZATION_EXCEPTION,
+                            "encode response failed: " + future.cause().getMessage()));
+                    WalleMessage errorResponse = buildBizResp();
+                    errorResponse.getHeader().setSessionID(message.getHeader().getSessionID());
+                    errorResponse.getHeader().setSerializer(message.getHeader().getSerializer());
+                    errorResponse.setBody(error);
+                    transportConfig.write(future.channel(), errorResponse);
+                }
+            });
         }
     }
 
@@ -136,7 +291,20 @@ public class WalleServerHandler extends SimpleChannelInboundHandler<WalleMessage
         return message;
     }
 
-    public static Object putHandlerMapBean(String interfaceName, Object serviceBean) throws BeansException {
-       return handlerMap.putIfAbsent(interfaceName, serviceBean);
+    /**
+     * Register a bean under {@code className:version} unless one is already there, returns the existing bean.
+     */
+    public static synchronized Object putHandlerMapBean(String interfaceName, Object serviceBean) throws BeansException {
+        Object old = handlerMap.get(interfaceName);
+        if (old != null) {
+            return old;
+        }
+        int index = interfaceName.lastIndexOf(':');
+        if (index < 0) {
+            ServiceInvokerTable.register(interfaceName, null, serviceBean);
+        } else {
+            ServiceInvokerTable.register(interfaceName.substring(0, index), interfaceName.substring(index + 1), serviceBean);
+        }
+        return null;
     }
 }
@@ -16,9 +16,9 @@
 package cn.pany.walle.remoting.server;
 
 import cn.pany.walle.common.annotation.WalleRpcService;
+import cn.pany.walle.remoting.serialize.SerializerFactory;
 import cn.pany.walle.common.model.InterfaceDetail;
 import cn.pany.walle.common.utils.ExecutorUtil;
-import cn.pany.walle.common.utils.InvokerUtil;
 import cn.pany.walle.remoting.registry.WalleRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -140,13 +140,15 @@ public class WalleSmartServer extends WalleServer implements ApplicationContextA
                 String interfaceName = serviceBean.getClass().getAnnotation(WalleRpcService.class).value().getName();
                 String version = serviceBean.getClass().getAnnotation(WalleRpcService.class).version();
                 String appName = serviceBean.getClass().getAnnotation(WalleRpcService.class).appName();
-                String invokerUrl = InvokerUtil.formatInvokerUrl(interfaceName, null, version);
+                String serializer = serviceBean.getClass().getAnnotation(WalleRpcService.class).serializer();
+                int weight = serviceBean.getClass().getAnnotation(WalleRpcService.class).weight();
 
-                WalleServerHandler.handlerMap.put(invokerUrl, serviceBean);
+                ServiceInvokerTable.register(interfaceName, version, serviceBean, SerializerFactory.idOf(serializer));
 
                 //注册到zookpeer
                 //class#method:version
                 InterfaceDetail interfaceDetail = new InterfaceDetail(interfaceName, version);
+                interfaceDetail.setWeight(weight);
                 addInterfaceDetail(appName, interfaceDetail);
             }
         }
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2018-2019 Pany Young.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.pany.walle.remoting.task;
+
+import cn.pany.walle.common.utils.NamedThreadFactory;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.TimerTask;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process wide hashed wheel timer for request timeouts.
+ * <p>
+ * Adding and cancelling a timeout are O(1) and a tick only walks the bucket it lands on,
+ * so the cost does not grow with the number of in-flight calls.
+ */
+public final class TimeoutScheduler {
+
+    private static final long TICK_DURATION = 10;
+    private static final int TICKS_PER_WHEEL = 1024;
+
+    private static final Timer timer = new HashedWheelTimer(new NamedThreadFactory("WalleTimeoutTimer", true),
+            TICK_DURATION, TimeUnit.MILLISECONDS, TICKS_PER_WHEEL);
+
+    private TimeoutScheduler() {
+    }
+
+    public static Timeout newTimeout(TimerTask task, long timeout, TimeUnit unit) {
+        return timer.newTimeout(task, timeout, unit);
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright 2018-2019 Pany Young.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.pany.walle.remoting.transport;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.DefaultSelectStrategyFactory;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SelectStrategyFactory;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollMode;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.ServerSocketChannel;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+
+import java.nio.channels.spi.SelectorProvider;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Transport settings of a client app or a server.
+ * <p>
+ * The epoll knobs are ignored when the resolved transport is NIO.
+ * Flush consolidation, batching, compression and lazy decoding work on both.
+ */
+public class TransportConfig {
+
+    //不阻塞在 epoll_wait 上，IO 线程一直空转取就绪事件
+    private static final SelectStrategyFactory BUSY_POLL = () -> (selectSupplier, hasTasks) -> selectSupplier.get();
+
+    private TransportType type = TransportType.NIO;
+    //epoll 边缘触发，false 时用水平触发
+    private boolean edgeTriggered = true;
+    //TCP_FASTOPEN 队列长度，0 表示关闭
+    private int tcpFastOpen;
+    private boolean reusePort;
+    private boolean busyPoll;
+    //合并 flush，按条数或字节数攒一批再 flush
+    private boolean flushConsolidation;
+    private int flushMaxMessages = 64;
+    private long flushMaxBytes = 64 * 1024;
+    //同一连接上排队的请求/响应合成批量帧，对端也要支持
+    private boolean batch;
+    //v2 帧的 body 达到这个字节数时用 snappy 压缩，0 表示不压缩
+    private int compressThreshold;
+    //解码器只解析帧头，请求和响应的 body 在业务线程或调用方线程里反序列化
+    private boolean lazyDecode;
+
+    private volatile TransportType resolved;
+
+    public boolean isEpoll() {
+        TransportType t = resolved;
+        if (t == null) {
+            resolved = t = type.resolve();
+        }
+        return t == TransportType.EPOLL;
+    }
+
+    public Class<? extends SocketChannel> socketChannelClass() {
+        return isEpoll() ? EpollSocketChannel.class : NioSocketChannel.class;
+    }
+
+    public Class<? extends ServerSocketChannel> serverSocketChannelClass() {
+        return isEpoll() ? EpollServerSocketChannel.class : NioServerSocketChannel.class;
+    }
+
+    /**
+     * Key of the shared event loop group this config runs on, groups differ by transport and busy-poll.
+     */
+    String groupKey(String name) {
+        if (!isEpoll()) {
+            return name;
+        }
+        return name + (busyPoll ? "-epoll-busy" : "-epoll");
+    }
+
+    EventLoopGroup newEventLoopGroup(int threads, ThreadFactory threadFactory) {
+        if (!isEpoll()) {
+            return new NioEventLoopGroup(threads, threadFactory, SelectorProvider.provider(), DefaultSelectStrategyFactory.INSTANCE);
+        }
+        return new EpollEventLoopGroup(threads, threadFactory, busyPoll ? BUSY_POLL : DefaultSelectStrategyFactory.INSTANCE);
+    }
+
+    /**
+     * Write and flush a message, going through the channel's {@link WriteQueue} when flush consolidation
+     * or batching is on.
+     */
+    public ChannelFuture write(Channel channel, Object msg) {
+        if (flushConsolidation || batch) {
+            return WriteQueue.get(channel, this).enqueue(msg);
+        }
+        return channel.writeAndFlush(msg);
+    }
+
+    public void applyClient(Bootstrap bootstrap) {
+        if (!isEpoll()) {
+            return;
+        }
+        bootstrap.option(EpollChannelOption.EPOLL_MODE, epollMode());
+        //TCP_FASTOPEN_CONNECT 需要较新的 netty
+        if (tcpFastOpen > 0 && ChannelOption.exists("TCP_FASTOPEN_CONNECT")) {
+            bootstrap.option(ChannelOption.<Boolean>valueOf("TCP_FASTOPEN_CONNECT"), true);
+        }
+    }
+
+    public void applyServer(ServerBootstrap bootstrap) {
+        if (!isEpoll()) {
+            return;
+        }
+        bootstrap.option(EpollChannelOption.EPOLL_MODE, epollMode())
+                .childOption(EpollChannelOption.EPOLL_MODE, epollMode());
+        if (tcpFastOpen > 0) {
+            bootstrap.option(EpollChannelOption.TCP_FASTOPEN, tcpFastOpen);
+        }
+        if (reusePort) {
+            bootstrap.option(EpollChannelOption.SO_REUSEPORT, true);
+        }
+    }
+
+    private EpollMode epollMode() {
+        return edgeTriggered ? EpollMode.EDGE_TRIGGERED : EpollMode.LEVEL_TRIGGERED;
+    }
+
+    public TransportType getType() {
+        return type;
+    }
+
+    public void setType(TransportType type) {
+        this.type = type;
+        this.resolved = null;
+    }
+
+    public boolean isEdgeTriggered() {
+        return edgeTriggered;
+    }
+
+    public void setEdgeTriggered(boolean edgeTriggered) {
+        this.edgeTriggered = edgeTriggered;
+    }
+
+    public int getTcpFastOpen() {
+        return tcpFastOpen;
+    }
+
+    public void setTcpFastOpen(int tcpFastOpen) {
+        this.tcpFastOpen = tcpFastOpen;
+    }
+
+    public boolean isReusePort() {
+        return reusePort;
+    }
+
+    public void setReusePort(boolean reusePort) {
+        this.reusePort = reusePort;
+    }
+
+    public boolean isBusyPoll() {
+        return busyPoll;
+    }
+
+    public void setBusyPoll(boolean busyPoll) {
+        this.busyPoll = busyPoll;
+    }
+
+    public boolean isFlushConsolidation() {
+        return flushConsolidation;
+    }
+
+    public void setFlushConsolidation(boolean flushConsolidation) {
+        this.flushConsolidation = flushConsolidation;
+    }
+
+    public int getFlushMaxMessages() {
+        return flushMaxMessages;
+    }
+
+    public void setFlushMaxMessages(int flushMaxMessages) {
+        this.flushMaxMessages = flushMaxMessages;
+    }
+
+    public long getFlushMaxBytes() {
+        return flushMaxBytes;
+    }
+
+    public void setFlushMaxBytes(long flushMaxBytes) {
+        this.flushMaxBytes = flushMaxBytes;
+    }
+
+    public boolean isBatch() {
+        return batch;
+    }
+
+    public void setBatch(boolean batch) {
+        this.batch = batch;
+    }
+
+    public int getCompressThreshold() {
+        return compressThreshold;
+    }
+
+    public void setCompressThreshold(int compressThreshold) {
+        this.compressThreshold = compressThreshold;
+    }
+
+    public boolean isLazyDecode() {
+        return lazyDecode;
+    }
+
+    public void setLazyDecode(boolean lazyDecode) {
+        this.lazyDecode = lazyDecode;
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2018-2019 Pany Young.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.pany.walle.remoting.transport;
+
+import cn.pany.walle.common.constants.WalleConstant;
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Process wide event loop groups shared by every {@code WalleClient} and {@code WalleServer}.
+ * <p>
+ * Groups are created on first {@link #acquire} and shut down when the last holder
+ * calls {@link #release}, so the number of IO threads follows the cores rather than
+ * the number of providers.
+ */
+public final class TransportResources {
+    private static final Logger log = LoggerFactory.getLogger(TransportResources.class);
+
+    public static final String CLIENT_WORKER = "WalleClientWorker";
+    public static final String SERVER_BOSS = "WalleServerBoss";
+    public static final String SERVER_WORKER = "WalleServerWorker";
+
+    private static final Map<String, SharedGroup> groups = new HashMap<>();
+
+    private TransportResources() {
+    }
+
+    public static synchronized EventLoopGroup acquire(String name, TransportConfig config) {
+        String key = config.groupKey(name);
+        SharedGroup shared = groups.get(key);
+        if (shared == null) {
+            int threads = threads(name);
+            shared = new SharedGroup(config.newEventLoopGroup(threads, new DefaultThreadFactory(key)));
+            groups.put(key, shared);
+            log.info("create shared event loop group [{}] with {} threads", key, threads);
+        }
+        shared.refCnt++;
+        return shared.group;
+    }
+
+    public static synchronized void release(String name, TransportConfig config) {
+        String key = config.groupKey(name);
+        SharedGroup shared = groups.get(key);
+        if (shared == null) {
+            return;
+        }
+        if (--shared.refCnt == 0) {
+            groups.remove(key);
+            shared.group.shutdownGracefully();
+            log.info("shared event loop group [{}] shutdown", key);
+        }
+    }
+
+    private static int threads(String name) {
+        //只监听少量端口，accept 用一个线程就够了
+        return SERVER_BOSS.equals(name) ? 1 : WalleConstant.DEFAULT_IO_THREADS;
+    }
+
+    private static class SharedGroup {
+        private final EventLoopGroup group;
+        private int refCnt;
+
+        SharedGroup(EventLoopGroup group) {
+            this.group = group;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2018-2019 Pany Young.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.pany.walle.remoting.transport;
+
+import io.netty.channel.epoll.Epoll;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * IO transport used by client and server channels.
+ */
+public enum TransportType {
+    //JDK NIO，所有平台可用
+    NIO,
+    //Linux native epoll，不可用时退回 NIO
+    EPOLL,
+    //可用时用 epoll，否则 NIO
+    AUTO;
+
+    private static final Logger log = LoggerFactory.getLogger(TransportType.class);
+
+    /**
+     * The transport actually used on this platform, either {@link #NIO} or {@link #EPOLL}.
+     */
+    public TransportType resolve() {
+        if (this == NIO) {
+            return NIO;
+        }
+        if (Epoll.isAvailable()) {
+            return EPOLL;
+        }
+        if (this == EPOLL) {
+            log.warn("native epoll transport is not available, fall back to nio", Epoll.unavailabilityCause());
+        }
+        return NIO;
+    }
+
+    public static TransportType of(String name) {
+        return valueOf(name.trim().toUpperCase());
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2018-2019 Pany Young.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.pany.walle.remoting.transport;
+
+import cn.pany.walle.common.protocol.MessageType;
+import cn.pany.walle.remoting.protocol.WalleBatch;
+import cn.pany.walle.remoting.protocol.WalleMessage;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelOutboundBuffer;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
+import io.netty.util.internal.PlatformDependent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Outgoing messages of one channel, written by a single event loop task and flushed together.
+ * <p>
+ * Callers on any thread only enqueue; the first message of a burst schedules one drain task,
+ * which writes everything queued so far and flushes once per {@code maxMessages} messages or
+ * {@code maxBytes} encoded bytes, and at the end of the burst.
+ * <p>
+ * With batching on, and once the peer said at login it decodes them, consecutive requests (or responses)
+ * found in the queue are written as one {@link WalleBatch} frame of up to {@code maxMessages} entries.
+ */
+public class WriteQueue implements Runnable {
+
+    private static final AttributeKey<WriteQueue> KEY = AttributeKey.valueOf("walle.writeQueue");
+
+    //一次任务最多写这么多条，避免一直占着 IO 线程
+    private static final int MAX_WRITES_PER_RUN = 1024;
+
+    private final Channel channel;
+    private final int maxMessages;
+    private final long maxBytes;
+    private final boolean batch;
+    private final Queue<PendingWrite> queue = PlatformDependent.newMpscQueue();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    WriteQueue(Channel channel, int maxMessages, long maxBytes, boolean batch) {
+        this.channel = channel;
+        this.maxMessages = maxMessages;
+        this.maxBytes = maxBytes;
+        this.batch = batch;
+    }
+
+    static WriteQueue get(Channel channel, TransportConfig config) {
+        Attribute<WriteQueue> attr = channel.attr(KEY);
+        WriteQueue writeQueue = attr.get();
+        if (writeQueue == null) {
+            writeQueue = new WriteQueue(channel, config.getFlushMaxMessages(), config.getFlushMaxBytes(), config.isBatch());
+            WriteQueue old = attr.setIfAbsent(writeQueue);
+            if (old != null) {
+                writeQueue = old;
+            }
+        }
+        return writeQueue;
+    }
+
+    public ChannelFuture enqueue(Object msg) {
+        ChannelPromise promise = channel.newPromise();
+        queue.add(new PendingWrite(msg, promise));
+        schedule();
+        return promise;
+    }
+
+    private void schedule() {
+        if (!scheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            channel.eventLoop().execute(this);
+        } catch (Throwable t) {
+            //IO 线程已经停了，没有人会再写，排着的都算失败；之后入队的会自己再走到这里
+            scheduled.set(false);
+            PendingWrite write;
+            while ((write = queue.poll()) != null) {
+                write.promise.tryFailure(t);
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        int writes = 0;
+        int unflushed = 0;
+        long flushedBytes = pendingBytes();
+        boolean batching = batch && WalleBatch.peerDecodes(channel);
+        PendingWrite write;
+        while (writes < MAX_WRITES_PER_RUN && (write = queue.poll()) != null) {
+            int written = batching && WalleBatch.isBatchable(write.msg) ? writeBatch(write) : writeOne(write);
+            writes += written;
+            unflushed += written;
+            if (unflushed >= maxMessages || pendingBytes() - flushedBytes >= maxBytes) {
+                channel.flush();
+                unflushed = 0;
+                flushedBytes = pendingBytes();
+            }
+        }
+        if (unflushed > 0) {
+            channel.flush();
+        }
+        scheduled.set(false);
+        //生产者可能在 set(false) 之前入队，没有抢到调度
+        if (!queue.isEmpty()) {
+            schedule();
+        }
+    }
+
+    private int writeOne(PendingWrite write) {
+        channel.write(write.msg, write.promise);
+        return 1;
+    }
+
+    //把紧跟着的同类型、同序列化方式的消息合成一个批量帧
+    private int writeBatch(PendingWrite first) {
+        MessageType type = ((WalleMessage) first.msg).getHeader().getType();
+        byte serializer = ((WalleMessage) first.msg).getHeader().getSerializer();
+        List<PendingWrite> writes = null;
+        PendingWrite next;
+        while ((writes == null || writes.size() < maxMessages) && (next = queue.peek()) != null
+                && WalleBatch.isBatchable(next.msg) && ((WalleMessage) next.msg).getHeader().getType() == type
+                && ((WalleMessage) next.msg).getHeader().getSerializer() == serializer) {
+            if (writes == null) {
+                writes = new ArrayList<>();
+                writes.add(first);
+            }
+            writes.add(queue.poll());
+        }
+        if (writes == null) {
+            return writeOne(first);
+        }
+        List<WalleMessage> messages = new ArrayList<>(writes.size());
+        for (PendingWrite write : writes) {
+            messages.add((WalleMessage) write.msg);
+        }
+        final List<PendingWrite> batchWrites = writes;
+        ChannelPromise promise = channel.newPromise();
+        promise.addListener(future -> {
+            for (PendingWrite write : batchWrites) {
+                if (future.isSuccess()) {
+                    write.promise.trySuccess();
+                } else {
+                    write.promise.tryFailure(future.cause());
+                }
+            }
+        });
+        channel.write(WalleBatch.of(type, messages), promise);
+        return writes.size();
+    }
+
+    private long pendingBytes() {
+        ChannelOutboundBuffer buffer = channel.unsafe().outboundBuffer();
+        return buffer == null ? 0 : buffer.totalPendingWriteBytes();
+    }
+
+    private static final class PendingWrite {
+        private final Object msg;
+        private final ChannelPromise promise;
+
+        PendingWrite(Object msg, ChannelPromise promise) {
+            this.msg = msg;
+            this.promise = promise;
+        }
+    }
+}
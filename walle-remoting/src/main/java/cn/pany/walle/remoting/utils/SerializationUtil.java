@@ -22,6 +22,8 @@ import com.dyuproject.protostuff.runtime.RuntimeSchema;
 import org.springframework.objenesis.Objenesis;
 import org.springframework.objenesis.ObjenesisStd;
 
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -38,7 +40,7 @@ public class SerializationUtil {
     }
 
     @SuppressWarnings("unchecked")
-    private static <T> Schema<T> getSchema(Class<T> cls) {
+    public static <T> Schema<T> getSchema(Class<T> cls) {
         Schema<T> schema = (Schema<T>) cachedSchema.get(cls);
         if (schema == null) {
             schema = RuntimeSchema.createFrom(cls);
@@ -49,6 +51,13 @@ public class SerializationUtil {
         return schema;
     }
 
+    /**
+     * An empty instance to merge into, constructors are not called.
+     */
+    public static <T> T newInstance(Class<T> cls) {
+        return objenesis.newInstance(cls);
+    }
+
     @SuppressWarnings("unchecked")
     public static <T> byte[] serialize(T obj) {
         Class<T> cls = (Class<T>) obj.getClass();
@@ -63,14 +72,55 @@ public class SerializationUtil {
         }
     }
 
+    /**
+     * Serialize straight into the stream, {@code buffer} is only scratch space for writing
+     * and can be reused once this returns.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> int serialize(T obj, OutputStream out, LinkedBuffer buffer) {
+        Class<T> cls = (Class<T>) obj.getClass();
+        try {
+            Schema<T> schema = getSchema(cls);
+            return ProtostuffIOUtil.writeTo(out, obj, schema, buffer);
+        } catch (Exception e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        } finally {
+            buffer.clear();
+        }
+    }
+
     public static <T> T deserialize(byte[] data, Class<T> cls) {
+        return deserialize(data, 0, data.length, cls);
+    }
+
+    /**
+     * Deserialize {@code length} bytes of {@code data} starting at {@code offset}, without copying them.
+     */
+    public static <T> T deserialize(byte[] data, int offset, int length, Class<T> cls) {
         try {
             T message = (T) objenesis.newInstance(cls);
             Schema<T> schema = getSchema(cls);
-            ProtostuffIOUtil.mergeFrom(data, message, schema);
+            ProtostuffIOUtil.mergeFrom(data, offset, length, message, schema);
+            return message;
+        } catch (Exception e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Deserialize everything left in the stream, {@code buffer} is only scratch space for reading
+     * and can be reused once this returns.
+     */
+    public static <T> T deserialize(InputStream in, Class<T> cls, LinkedBuffer buffer) {
+        try {
+            T message = objenesis.newInstance(cls);
+            Schema<T> schema = getSchema(cls);
+            ProtostuffIOUtil.mergeFrom(in, message, schema, buffer);
             return message;
         } catch (Exception e) {
             throw new IllegalStateException(e.getMessage(), e);
+        } finally {
+            buffer.clear();
         }
     }
 
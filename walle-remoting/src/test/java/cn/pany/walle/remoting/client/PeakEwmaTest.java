@@ -0,0 +1,71 @@
+/*
+ * Copyright 2018-2019 Pany Young.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.pany.walle.remoting.client;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link PeakEwma} with the time passed in, so the decay does not depend on how fast the test runs.
+ */
+public class PeakEwmaTest {
+
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final PeakEwma ewma = new PeakEwma();
+    private final long t0 = System.nanoTime();
+
+    @Test
+    public void zeroBeforeFirstResponse() {
+        assertEquals(0, ewma.get(t0), 0);
+        assertEquals(0, ewma.get(t0 + 100 * SECOND), 0);
+    }
+
+    @Test
+    public void slowResponseCountsAtOnce() {
+        ewma.observe(MS, t0);
+        ewma.observe(MS, t0 + MS);
+        ewma.observe(100 * MS, t0 + 2 * MS);
+        assertEquals(100 * MS, ewma.get(t0 + 2 * MS), 1);
+    }
+
+    @Test
+    public void fastResponseLowersItGradually() {
+        ewma.observe(100 * MS, t0);
+        ewma.observe(MS, t0 + SECOND);
+        double weight = Math.exp(-0.1);
+        assertEquals(100 * MS * weight + MS * (1 - weight), ewma.get(t0 + SECOND), 1);
+
+        //时间越久，快的响应占比越大
+        PeakEwma later = new PeakEwma();
+        later.observe(100 * MS, t0);
+        later.observe(MS, t0 + 5 * SECOND);
+        assertTrue(later.get(t0 + 5 * SECOND) < ewma.get(t0 + SECOND));
+    }
+
+    @Test
+    public void decaysWithoutTraffic() {
+        ewma.observe(100 * MS, t0);
+        assertEquals(100 * MS, ewma.get(t0), 1);
+        assertEquals(100 * MS / Math.E, ewma.get(t0 + 10 * SECOND), 1);
+        assertTrue(ewma.get(t0 + 60 * SECOND) < MS);
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2018-2019 Pany Young.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.pany.walle.remoting.client;
+
+import cn.pany.walle.remoting.exception.WalleRpcException;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Test;
+
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * {@link PendingCallTable} with ids picked by their home slot, so the probe chains are known.
+ */
+public class PendingCallTableTest {
+
+    //初始容量 64
+    private static final int MASK = 63;
+
+    private final PendingCallTable table = new PendingCallTable();
+
+    @Test
+    public void collidingKeysAreAllFound() {
+        long[] ids = idsHomedAt(5, 4);
+        WalleResponseFuture[] futures = put(ids);
+
+        assertEquals(4, table.size());
+        for (int i = 0; i < ids.length; i++) {
+            assertSame(futures[i], table.get(ids[i]));
+        }
+    }
+
+    @Test
+    public void removeInTheMiddleOfAChainKeepsLaterKeysReachable() {
+        //62、63 之后绕回 0，再加一个本该在 63 的 key 排到 1
+        long[] chain = idsHomedAt(62, 3);
+        long later = idsHomedAt(63, 1)[0];
+        WalleResponseFuture[] futures = put(chain);
+        WalleResponseFuture laterFuture = put(later);
+
+        assertSame(futures[1], table.remove(chain[1]));
+
+        assertNull(table.get(chain[1]));
+        assertNull(table.remove(chain[1]));
+        assertSame(futures[0], table.get(chain[0]));
+        assertSame(futures[2], table.get(chain[2]));
+        assertSame(laterFuture, table.get(later));
+        assertEquals(3, table.size());
+
+        //只删除登记的那个 future
+        assertFalse(table.remove(chain[2], new WalleResponseFuture(table, chain[2])));
+        assertTrue(table.remove(chain[2], futures[2]));
+        assertSame(laterFuture, table.get(later));
+        assertEquals(2, table.size());
+    }
+
+    @Test
+    public void resizeKeepsEveryCall() {
+        long[] ids = new long[1000];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = table.nextId();
+        }
+        WalleResponseFuture[] futures = put(ids);
+        assertEquals(ids.length, table.size());
+
+        for (int i = 0; i < ids.length; i += 2) {
+            assertSame(futures[i], table.remove(ids[i]));
+        }
+        assertEquals(ids.length / 2, table.size());
+        for (int i = 0; i < ids.length; i++) {
+            if (i % 2 == 0) {
+                assertNull(table.get(ids[i]));
+            } else {
+                assertSame(futures[i], table.get(ids[i]));
+            }
+        }
+    }
+
+    @Test
+    public void channelCloseFailsEveryPendingCall() throws Exception {
+        EmbeddedChannel channel = new EmbeddedChannel();
+        PendingCallTable pending = PendingCallTable.get(channel);
+        assertSame(pending, PendingCallTable.get(channel));
+        WalleResponseFuture[] futures = new WalleResponseFuture[3];
+        for (int i = 0; i < futures.length; i++) {
+            long id = pending.nextId();
+            futures[i] = new WalleResponseFuture(pending, id);
+            pending.put(id, futures[i]);
+        }
+
+        channel.close().sync();
+
+        for (WalleResponseFuture future : futures) {
+            try {
+                future.get();
+                fail("requestId [" + future.getRequestId() + "] should have failed");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof WalleRpcException);
+                assertEquals(WalleRpcException.NETWORK_EXCEPTION, ((WalleRpcException) e.getCause()).getCode());
+            }
+        }
+        assertEquals(0, pending.size());
+        assertNull(channel.attr(PendingCallTable.KEY).get());
+    }
+
+    private WalleResponseFuture[] put(long[] ids) {
+        WalleResponseFuture[] futures = new WalleResponseFuture[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            futures[i] = put(ids[i]);
+        }
+        return futures;
+    }
+
+    private WalleResponseFuture put(long id) {
+        WalleResponseFuture future = new WalleResponseFuture(table, id);
+        table.put(id, future);
+        return future;
+    }
+
+    private static long[] idsHomedAt(int slot, int count) {
+        long[] ids = new long[count];
+        int n = 0;
+        for (long id = 1; n < count; id++) {
+            if (PendingCallTable.index(id, MASK) == slot) {
+                ids[n++] = id;
+            }
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,417 @@
+/*
+ * Copyright 2018-2019 Pany Young.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.pany.walle.remoting.codec;
+
+import cn.pany.walle.common.protocol.MessageType;
+import cn.pany.walle.remoting.protocol.Header;
+import cn.pany.walle.remoting.protocol.WalleBatch;
+import cn.pany.walle.remoting.protocol.WalleBizRequest;
+import cn.pany.walle.remoting.protocol.WalleMessage;
+import cn.pany.walle.remoting.serialize.Serializer;
+import cn.pany.walle.remoting.serialize.SerializerFactory;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PoolArenaMetric;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.DecoderException;
+import io.netty.handler.codec.EncoderException;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Encode with {@link FrameChunkEncoder} and {@link WalleMessageEncoder}, decode with
+ * {@link WalleMessageDecoder}, and check that what comes out is what went in.
+ */
+public class WalleMessageCodecTest {
+
+    //不带线程缓存的池，用完之后活跃分配数应该回到 0
+    private final PooledByteBufAllocator alloc = new PooledByteBufAllocator(true, 1, 1, 8192, 11, 0, 0, 0);
+    private int frames;
+
+    private static final byte FAILING = 30;
+
+    static {
+        SerializerFactory.register(new FailingSerializer());
+    }
+
+    @After
+    public void noPooledBufferLeft() {
+        long active = 0;
+        for (PoolArenaMetric arena : alloc.directArenas()) {
+            active += arena.numActiveAllocations();
+        }
+        for (PoolArenaMetric arena : alloc.heapArenas()) {
+            active += arena.numActiveAllocations();
+        }
+        assertEquals("pooled buffers still allocated", 0, active);
+    }
+
+    @Test
+    public void v1KeepsCallerHeader() {
+        EmbeddedChannel out = encoder(1, 0);
+        EmbeddedChannel in = decoder(1 << SerializerFactory.HESSIAN);
+        WalleMessage message = request(7, "a", 1);
+        message.getHeader().setSerializer(SerializerFactory.HESSIAN);
+        message.getHeader().getAttachment().put("trace", "t1");
+
+        WalleMessage decoded = roundTrip(out, in, message);
+
+        assertEquals(7, decoded.getHeader().getSessionID());
+        assertEquals(SerializerFactory.HESSIAN, decoded.getHeader().getSerializer());
+        assertEquals("t1", decoded.getHeader().getAttachment().get("trace"));
+        assertParameters(message, decoded);
+        assertFalse(message.getHeader().getAttachment().containsKey("serializer"));
+        finish(out, in);
+    }
+
+    @Test
+    public void serializerNotAgreedAtLoginIsRejected() {
+        EmbeddedChannel out = encoder(FrameChunkEncoder.VERSION, 0);
+        EmbeddedChannel in = decoder();
+        WalleMessage message = request(7, "a");
+        message.getHeader().setSerializer(SerializerFactory.HESSIAN);
+        assertTrue(out.writeOutbound(message));
+        Object frame = out.readOutbound();
+        try {
+            in.writeInbound(frame);
+            fail("hessian was not agreed");
+        } catch (DecoderException e) {
+            assertTrue(e.getMessage().contains("not agreed"));
+        }
+        assertNull(in.readInbound());
+
+        WalleMessage after = request(8, "b");
+        assertParameters(after, roundTrip(out, in, after));
+        finish(out, in);
+    }
+
+    @Test
+    public void v2UsesDictionaryAcrossFrames() {
+        EmbeddedChannel out = encoder(FrameV2.VERSION, 0);
+        EmbeddedChannel in = decoder();
+        for (int i = 0; i < 3; i++) {
+            WalleMessage message = request(i, "p" + i);
+            message.getHeader().setPriority((byte) 3);
+            message.getHeader().getAttachment().put("trace", "t" + i);
+
+            WalleMessage decoded = roundTrip(out, in, message);
+
+            assertEquals(i, decoded.getHeader().getSessionID());
+            assertEquals(3, decoded.getHeader().getPriority());
+            assertEquals("t" + i, decoded.getHeader().getAttachment().get("trace"));
+            assertParameters(message, decoded);
+        }
+        finish(out, in);
+    }
+
+    @Test
+    public void compressedBodyOver32K() {
+        EmbeddedChannel out = encoder(FrameV2.VERSION, 256);
+        EmbeddedChannel in = decoder();
+        WalleMessage message = request(1, text(100 * 1024));
+
+        WalleMessage decoded = roundTrip(out, in, message);
+
+        assertParameters(message, decoded);
+        finish(out, in);
+    }
+
+    @Test
+    public void chunkedBodyOver1M() {
+        EmbeddedChannel out = encoder(FrameChunkEncoder.VERSION, 0);
+        EmbeddedChannel in = decoder();
+        WalleMessage message = request(1, text(3 * 1024 * 1024));
+
+        WalleMessage decoded = roundTrip(out, in, message);
+
+        assertTrue("expect chunks but got " + frames + " buffers", frames > 2);
+        assertParameters(message, decoded);
+        finish(out, in);
+    }
+
+    @Test
+    public void compressedAndChunkedBodyOver1M() {
+        EmbeddedChannel out = encoder(FrameChunkEncoder.VERSION, 256);
+        EmbeddedChannel in = decoder();
+        for (int size : new int[]{1024 * 1024 + 1, 5 * 1024 * 1024}) {
+            WalleMessage message = request(size, random(size), text(size));
+
+            WalleMessage decoded = roundTrip(out, in, message);
+
+            assertTrue("expect chunks but got " + frames + " buffers", frames > 2);
+            assertParameters(message, decoded);
+        }
+        finish(out, in);
+    }
+
+    @Test
+    public void batchKeepsEntrySessions() {
+        EmbeddedChannel out = encoder(FrameChunkEncoder.VERSION, 256);
+        EmbeddedChannel in = decoder();
+        List<WalleMessage> entries = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            entries.add(request(100 + i, "entry" + i, text(20 * 1024)));
+        }
+
+        WalleMessage decoded = roundTrip(out, in, WalleBatch.of(MessageType.SERVICE_REQ, entries));
+
+        assertEquals(MessageType.BATCH_REQ, decoded.getHeader().getType());
+        List<WalleMessage> messages = ((WalleBatch) decoded.getBody()).getMessages();
+        assertEquals(entries.size(), messages.size());
+        for (int i = 0; i < entries.size(); i++) {
+            assertEquals(MessageType.SERVICE_REQ, messages.get(i).getHeader().getType());
+            assertEquals(100 + i, messages.get(i).getHeader().getSessionID());
+            assertParameters(entries.get(i), messages.get(i));
+        }
+        finish(out, in);
+    }
+
+    @Test
+    public void batchStartsANewFrameBeforeCrossingTheLimit() {
+        //v1 帧不分片，两条合在一帧会超过解码端 1M 的 maxFrameLength
+        EmbeddedChannel out = encoder(1, 0);
+        EmbeddedChannel in = decoder();
+        List<WalleMessage> entries = new ArrayList<>();
+        entries.add(request(100, text(500 * 1024)));
+        entries.add(request(101, text(600 * 1024)));
+        entries.add(request(102, "small"));
+
+        assertTrue(out.writeOutbound(WalleBatch.of(MessageType.SERVICE_REQ, entries)));
+        Object buf;
+        while ((buf = out.readOutbound()) != null) {
+            in.writeInbound(buf);
+        }
+        List<WalleMessage> messages = new ArrayList<>();
+        WalleMessage decoded;
+        while ((decoded = (WalleMessage) in.readInbound()) != null) {
+            assertEquals(MessageType.BATCH_REQ, decoded.getHeader().getType());
+            messages.addAll(((WalleBatch) decoded.getBody()).getMessages());
+        }
+        assertEquals(entries.size(), messages.size());
+        for (int i = 0; i < entries.size(); i++) {
+            assertEquals(100 + i, messages.get(i).getHeader().getSessionID());
+            assertParameters(entries.get(i), messages.get(i));
+        }
+        finish(out, in);
+    }
+
+    @Test
+    public void oversizedChunkedMessageIsDroppedUntilItsLastChunk() {
+        EmbeddedChannel in = decoder();
+        int chunks = FrameChunkEncoder.MAX_MESSAGE_LENGTH / FrameChunkEncoder.CHUNK_SIZE + 3;
+        int errors = 0;
+        for (int i = 0; i < chunks; i++) {
+            try {
+                in.writeInbound(chunk(FrameChunkEncoder.CHUNK_SIZE, i == chunks - 1));
+            } catch (DecoderException e) {
+                errors++;
+            }
+        }
+        assertEquals(1, errors);
+        assertNull(in.readInbound());
+
+        //后面的消息照常解码
+        EmbeddedChannel out = encoder(FrameChunkEncoder.VERSION, 0);
+        WalleMessage message = request(9, "after");
+        assertParameters(message, roundTrip(out, in, message));
+        finish(out, in);
+    }
+
+    @Test
+    public void oversizedMessageFailsTheWrite() {
+        EmbeddedChannel out = encoder(FrameChunkEncoder.VERSION, 0);
+        try {
+            out.writeOutbound(request(1, (Object) new byte[FrameChunkEncoder.MAX_MESSAGE_LENGTH + 1]));
+            fail("write of an oversized message should fail");
+        } catch (EncoderException expected) {
+        }
+        assertNull(out.readOutbound());
+
+        EmbeddedChannel in = decoder();
+        WalleMessage message = request(2, "next");
+        assertParameters(message, roundTrip(out, in, message));
+        finish(out, in);
+    }
+
+    @Test
+    public void failedBodyFailsTheWriteAndKeepsDictionary() {
+        EmbeddedChannel out = encoder(FrameV2.VERSION, 0);
+        EmbeddedChannel in = decoder();
+        WalleMessage broken = request(1, "x");
+        broken.getHeader().setSerializer(FAILING);
+        broken.getHeader().getAttachment().put("onlyInBroken", "v");
+        try {
+            out.writeOutbound(broken);
+            fail("write of a body that cannot be serialized should fail");
+        } catch (EncoderException expected) {
+        }
+        assertNull(out.readOutbound());
+
+        //失败帧里新加的字典项已经回滚，对端的字典还是同步的
+        WalleMessage message = request(2, "y");
+        message.getHeader().getAttachment().put("onlyInBroken", "w");
+        WalleMessage decoded = roundTrip(out, in, message);
+        assertEquals("w", decoded.getHeader().getAttachment().get("onlyInBroken"));
+        assertParameters(message, decoded);
+        finish(out, in);
+    }
+
+    private EmbeddedChannel encoder(int version, int compressThreshold) {
+        EmbeddedChannel channel = new EmbeddedChannel();
+        channel.config().setAllocator(alloc);
+        FrameChunkEncoder chunkEncoder = new FrameChunkEncoder();
+        WalleMessageEncoder encoder;
+        try {
+            encoder = new WalleMessageEncoder();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        chunkEncoder.useVersion(version);
+        encoder.useVersion(version);
+        encoder.useCompression(compressThreshold);
+        channel.pipeline().addLast(chunkEncoder, encoder);
+        return channel;
+    }
+
+    private EmbeddedChannel decoder() {
+        return decoder(0);
+    }
+
+    private EmbeddedChannel decoder(int serializers) {
+        EmbeddedChannel channel = new EmbeddedChannel();
+        channel.config().setAllocator(alloc);
+        WalleMessageDecoder decoder;
+        try {
+            decoder = new WalleMessageDecoder(1024 * 1024, 4, 4);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        decoder.useSerializers(serializers);
+        channel.pipeline().addLast(decoder);
+        return channel;
+    }
+
+    private WalleMessage roundTrip(EmbeddedChannel out, EmbeddedChannel in, WalleMessage message) {
+        assertTrue(out.writeOutbound(message));
+        frames = 0;
+        Object buf;
+        while ((buf = out.readOutbound()) != null) {
+            frames++;
+            in.writeInbound(buf);
+        }
+        WalleMessage decoded = (WalleMessage) in.readInbound();
+        assertNull(in.readInbound());
+        return decoded;
+    }
+
+    private static void finish(EmbeddedChannel out, EmbeddedChannel in) {
+        assertFalse(out.finish());
+        assertFalse(in.finish());
+    }
+
+    private static WalleMessage request(long sessionID, Object... parameters) {
+        WalleBizRequest request = new WalleBizRequest();
+        request.setRequestId("r" + sessionID);
+        request.setClassName("cn.pany.walle.Echo");
+        request.setMethodName("echo");
+        request.setParameters(parameters);
+        Header header = new Header();
+        header.setType(MessageType.SERVICE_REQ);
+        header.setSessionID(sessionID);
+        WalleMessage message = new WalleMessage();
+        message.setHeader(header);
+        message.setBody(request);
+        return message;
+    }
+
+    private static void assertParameters(WalleMessage expected, WalleMessage actual) {
+        WalleBizRequest want = (WalleBizRequest) expected.getBody();
+        WalleBizRequest got = (WalleBizRequest) actual.getBody();
+        assertEquals(want.getRequestId(), got.getRequestId());
+        assertEquals(want.getMethodName(), got.getMethodName());
+        assertEquals(want.getParameters().length, got.getParameters().length);
+        for (int i = 0; i < want.getParameters().length; i++) {
+            if (want.getParameters()[i] instanceof byte[]) {
+                assertArrayEquals((byte[]) want.getParameters()[i], (byte[]) got.getParameters()[i]);
+            } else {
+                assertEquals(want.getParameters()[i], got.getParameters()[i]);
+            }
+        }
+    }
+
+    //好压缩的文本
+    private static String text(int length) {
+        StringBuilder text = new StringBuilder(length + 16);
+        Random random = new Random(length);
+        while (text.length() < length) {
+            text.append("word").append(random.nextInt(50)).append(' ');
+        }
+        return text.toString();
+    }
+
+    //压不动的字节
+    private static byte[] random(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static ByteBuf chunk(int size, boolean last) {
+        ByteBuf chunk = Unpooled.buffer(FrameChunkEncoder.HEADER_LENGTH + size);
+        chunk.writeInt(FrameChunkEncoder.MAGIC);
+        chunk.writeInt(size + 1);
+        chunk.writeByte(last ? FrameChunkEncoder.FLAG_LAST : 0);
+        chunk.writerIndex(FrameChunkEncoder.HEADER_LENGTH + size);
+        return chunk;
+    }
+
+    private static class FailingSerializer implements Serializer {
+
+        @Override
+        public byte getId() {
+            return FAILING;
+        }
+
+        @Override
+        public String getName() {
+            return "failing";
+        }
+
+        @Override
+        public void serialize(Object obj, ByteBuf out) throws IOException {
+            out.writeBytes(new byte[16]);
+            throw new IOException("cannot serialize " + obj.getClass().getName());
+        }
+
+        @Override
+        public Object deserialize(ByteBuf in, int length, Class<?> type) throws IOException {
+            throw new IOException("cannot deserialize " + type.getName());
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2018-2019 Pany Young.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.pany.walle.remoting.loadbalance;
+
+import cn.pany.walle.common.URL;
+import cn.pany.walle.remoting.client.WalleClient;
+import cn.pany.walle.remoting.exception.RemotingException;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link ConsistenthashLoadbalance} over providers that never connect, only their addresses matter.
+ */
+public class ConsistenthashLoadbalanceTest {
+
+    private static final String SERVICE = "cn.pany.walle.demo.EchoService";
+    private static final int KEYS = 1000;
+
+    private final ConsistenthashLoadbalance balance = new ConsistenthashLoadbalance();
+
+    @Test
+    public void sameKeyGoesToTheSameProvider() throws Exception {
+        List<WalleClient> clients = clients(20001, 20002, 20003, 20004);
+        WalleClient[] first = selectAll(balance, clients);
+
+        //换一个内容相同的列表、换一个实例，结果都不变
+        assertArrayEqualsBySame(first, selectAll(balance, new ArrayList<>(clients)));
+        assertArrayEqualsBySame(first, selectAll(new ConsistenthashLoadbalance(), clients));
+        assertEquals(4, new HashSet<>(Arrays.asList(first)).size());
+    }
+
+    @Test
+    public void removingAProviderOnlyMovesItsKeys() throws Exception {
+        List<WalleClient> clients = clients(20001, 20002, 20003, 20004);
+        WalleClient removed = clients.get(1);
+        WalleClient[] before = selectAll(balance, clients);
+
+        List<WalleClient> left = new ArrayList<>(clients);
+        left.remove(removed);
+        WalleClient[] after = selectAll(balance, left);
+
+        int moved = 0;
+        for (int i = 0; i < KEYS; i++) {
+            if (before[i] == removed) {
+                assertNotSame(removed, after[i]);
+                moved++;
+            } else {
+                assertSame("key-" + i, before[i], after[i]);
+            }
+        }
+        assertTrue(moved > 0);
+        //补丁出来的环和重新建的一样
+        assertArrayEqualsBySame(after, selectAll(new ConsistenthashLoadbalance(), left));
+
+        //加回来，原来的 key 也回来
+        assertArrayEqualsBySame(before, selectAll(balance, clients));
+    }
+
+    private static WalleClient[] selectAll(ConsistenthashLoadbalance balance, List<WalleClient> clients) {
+        WalleClient[] selected = new WalleClient[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            Map<String, Object> map = new HashMap<>();
+            map.put(AbstractLoadBalance.SERVICE_KEY, SERVICE);
+            map.put(ConsistenthashLoadbalance.HASH_KEY, "key-" + i);
+            selected[i] = balance.selectorMain(clients, map);
+        }
+        return selected;
+    }
+
+    private static void assertArrayEqualsBySame(WalleClient[] expected, WalleClient[] actual) {
+        for (int i = 0; i < KEYS; i++) {
+            assertSame("key-" + i, expected[i], actual[i]);
+        }
+    }
+
+    private static List<WalleClient> clients(int... ports) throws RemotingException {
+        List<WalleClient> clients = new ArrayList<>();
+        for (int port : ports) {
+            clients.add(new WalleClient(null, new URL("walle", "127.0.0.1", port), Collections.emptySet()));
+        }
+        return clients;
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2018-2019 Pany Young.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.pany.walle.remoting.loadbalance;
+
+import cn.pany.walle.common.URL;
+import cn.pany.walle.remoting.client.WalleClient;
+import cn.pany.walle.remoting.exception.RemotingException;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * {@link P2cLoadBalance} with providers of fixed load: whichever two it samples, the lower one wins.
+ */
+public class P2cLoadBalanceTest {
+
+    private final P2cLoadBalance balance = new P2cLoadBalance();
+
+    @Test
+    public void picksTheLowerOfTwo() throws Exception {
+        WalleClient slow = client(20001, 50);
+        WalleClient fast = client(20002, 10);
+        for (List<WalleClient> clients : Arrays.asList(Arrays.asList(slow, fast), Arrays.asList(fast, slow))) {
+            for (int i = 0; i < 100; i++) {
+                assertSame(fast, balance.selectorMain(clients, new HashMap<>()));
+            }
+        }
+    }
+
+    @Test
+    public void neverPicksTheHighestOfSeveral() throws Exception {
+        //两个样本一定不同，负载最高的总会输给另一个
+        WalleClient slow = client(20001, 50);
+        List<WalleClient> clients = Arrays.asList(client(20002, 10), slow, client(20003, 20));
+        Map<WalleClient, Integer> picks = new HashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            WalleClient picked = balance.selectorMain(clients, new HashMap<>());
+            assertNotSame(slow, picked);
+            picks.merge(picked, 1, Integer::sum);
+        }
+        assertEquals(2, picks.size());
+    }
+
+    @Test
+    public void singleProvider() throws Exception {
+        WalleClient only = client(20001, 50);
+        assertSame(only, balance.selectorMain(Collections.singletonList(only), new HashMap<>()));
+    }
+
+    private static WalleClient client(int port, double load) throws RemotingException {
+        return new WalleClient(null, new URL("walle", "127.0.0.1", port), Collections.emptySet()) {
+            @Override
+            public double getLoad() {
+                return load;
+            }
+        };
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2018-2019 Pany Young.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.pany.walle.remoting.loadbalance;
+
+import cn.pany.walle.common.URL;
+import cn.pany.walle.common.constants.WalleConstant;
+import cn.pany.walle.remoting.client.WalleClient;
+import cn.pany.walle.remoting.exception.RemotingException;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * {@link RoundrobinLoadBalance} with providers of fixed weight, the picks are fully deterministic.
+ */
+public class RoundrobinLoadBalanceTest {
+
+    private static final String SERVICE = "cn.pany.walle.demo.EchoService";
+
+    private final RoundrobinLoadBalance balance = new RoundrobinLoadBalance();
+
+    @Test
+    public void smoothSequenceForFiveOneOne() throws Exception {
+        WalleClient a = client(20001, 5);
+        WalleClient b = client(20002, 1);
+        WalleClient c = client(20003, 1);
+        List<WalleClient> clients = Arrays.asList(a, b, c);
+        List<WalleClient> expected = Arrays.asList(a, a, b, a, c, a, a);
+
+        //一轮之后 current weight 全部归零，下一轮完全一样
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < expected.size(); i++) {
+                assertSame("round " + round + " pick " + i, expected.get(i), select(clients));
+            }
+        }
+    }
+
+    @Test
+    public void zeroWeightGetsNothing() throws Exception {
+        WalleClient off = client(20001, 0);
+        WalleClient b = client(20002, 1);
+        WalleClient c = client(20003, 1);
+        Map<WalleClient, Integer> picks = pick(Arrays.asList(off, b, c), 100);
+
+        assertNull(picks.get(off));
+        assertEquals(50, (int) picks.get(b));
+        assertEquals(50, (int) picks.get(c));
+    }
+
+    @Test
+    public void allZeroFallsBackToPlainRoundRobin() throws Exception {
+        List<WalleClient> clients = Arrays.asList(client(20001, 0), client(20002, 0), client(20003, 0));
+        Map<WalleClient, Integer> picks = pick(clients, 300);
+
+        for (WalleClient client : clients) {
+            assertEquals(100, (int) picks.get(client));
+        }
+    }
+
+    @Test
+    public void missingWeightCountsAsDefault() throws Exception {
+        //没有注册权重的服务端按 DEFAULT_WEIGHT 算
+        WalleClient unset = new WalleClient(null, new URL("walle", "127.0.0.1", 20001), Collections.emptySet());
+        WalleClient heavy = client(20002, WalleConstant.DEFAULT_WEIGHT * 3);
+        Map<WalleClient, Integer> picks = pick(Arrays.asList(unset, heavy), 400);
+
+        assertEquals(WalleConstant.DEFAULT_WEIGHT, unset.getWeight(SERVICE));
+        assertEquals(100, (int) picks.get(unset));
+        assertEquals(300, (int) picks.get(heavy));
+    }
+
+    private Map<WalleClient, Integer> pick(List<WalleClient> clients, int times) {
+        Map<WalleClient, Integer> picks = new HashMap<>();
+        for (int i = 0; i < times; i++) {
+            picks.merge(select(clients), 1, Integer::sum);
+        }
+        return picks;
+    }
+
+    private WalleClient select(List<WalleClient> clients) {
+        Map<String, Object> map = new HashMap<>();
+        map.put(AbstractLoadBalance.SERVICE_KEY, SERVICE);
+        return balance.selectorMain(clients, map);
+    }
+
+    private static WalleClient client(int port, int weight) throws RemotingException {
+        return new WalleClient(null, new URL("walle", "127.0.0.1", port), Collections.emptySet()) {
+            @Override
+            public int getWeight(String interfaceUrl) {
+                return weight;
+            }
+        };
+    }
+}
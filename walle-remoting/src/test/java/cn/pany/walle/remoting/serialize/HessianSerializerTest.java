@@ -0,0 +1,133 @@
+/*
+ * Copyright 2018-2019 Pany Young.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.pany.walle.remoting.serialize;
+
+import cn.pany.walle.remoting.protocol.WalleBizRequest;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Test;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link HessianSerializer} only creates objects of the types a service configured with it can carry.
+ */
+public class HessianSerializerTest {
+
+    private final HessianSerializer hessian = new HessianSerializer();
+
+    public interface OrderService {
+        Order place(Order order, List<Item> items) throws OrderException;
+    }
+
+    public static class Order implements Serializable {
+        String id;
+        Item first;
+        //字段里声明的 JDK 类也放行
+        Point at;
+    }
+
+    public static class Item implements Serializable {
+        String name;
+        int count;
+    }
+
+    public static class OrderException extends Exception {
+    }
+
+    //没有任何服务声明过这个类型
+    public static class Gadget implements Serializable {
+        static int created;
+        String command;
+
+        public Gadget() {
+            created++;
+        }
+    }
+
+    static {
+        SerializerFactory.enable(SerializerFactory.HESSIAN, OrderService.class);
+    }
+
+    @Test
+    public void typesOfTheServiceRoundTrip() throws IOException {
+        Order order = new Order();
+        order.id = "o1";
+        order.first = new Item();
+        order.first.name = "pen";
+        order.first.count = 2;
+        order.at = new Point(3, 4);
+        Item item = new Item();
+        item.name = "ink";
+        List<Item> items = new ArrayList<>(Collections.singletonList(item));
+
+        Object[] parameters = ((WalleBizRequest) roundTrip(request(order, items))).getParameters();
+
+        Order decodedOrder = (Order) parameters[0];
+        assertEquals("o1", decodedOrder.id);
+        assertEquals("pen", decodedOrder.first.name);
+        assertEquals(2, decodedOrder.first.count);
+        assertEquals(new Point(3, 4), decodedOrder.at);
+        assertEquals("ink", ((Item) ((List<?>) parameters[1]).get(0)).name);
+    }
+
+    @Test
+    public void typeNoServiceDeclaresIsReadAsMap() throws IOException {
+        Gadget gadget = new Gadget();
+        gadget.command = "touch /tmp/x";
+        int created = Gadget.created;
+
+        Object[] parameters = ((WalleBizRequest) roundTrip(request(gadget))).getParameters();
+
+        assertEquals(created, Gadget.created);
+        assertTrue(parameters[0] instanceof Map);
+        assertEquals("touch /tmp/x", ((Map<?, ?>) parameters[0]).get("command"));
+    }
+
+    @Test
+    public void jdkTypeOutsideLangAndUtilIsReadAsMap() throws IOException {
+        Object[] parameters = ((WalleBizRequest) roundTrip(request(new Rectangle(1, 2, 3, 4)))).getParameters();
+
+        assertTrue(parameters[0] instanceof Map);
+    }
+
+    private Object roundTrip(Object value) throws IOException {
+        ByteBuf buf = Unpooled.buffer();
+        try {
+            hessian.serialize(value, buf);
+            return hessian.deserialize(buf, buf.readableBytes(), value.getClass());
+        } finally {
+            buf.release();
+        }
+    }
+
+    private static WalleBizRequest request(Object... parameters) {
+        WalleBizRequest request = new WalleBizRequest();
+        request.setRequestId("r1");
+        request.setParameters(parameters);
+        return request;
+    }
+}